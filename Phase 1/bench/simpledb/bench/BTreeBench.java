@@ -0,0 +1,73 @@
+package simpledb.bench;
+
+import simpledb.index.btree.BTreeIndex;
+import simpledb.query.IntConstant;
+import simpledb.record.*;
+import simpledb.tx.Transaction;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Inserts random keys into a B-tree index, or looks up keys
+ * in an index that holds {@link #KEYS} of them.
+ * Each run uses a new index and a single transaction,
+ * which is committed every {@link #COMMIT_EVERY} operations
+ * so that its locks do not pile up.
+ */
+public class BTreeBench extends Benchmark {
+   private static final int KEYS = 10000, COMMIT_EVERY = 1000;
+   private static int nextIndex = 0;
+   private String idxname;
+   private Schema leafsch;
+   private Transaction tx;
+   private BTreeIndex idx;
+   private boolean insert;
+   private int count = 0;
+
+   public BTreeBench() {
+      super("btree");
+      param("op", "insert", "lookup");
+   }
+
+   public void setUp(Map<String,String> params, int nthreads) {
+      leafsch = new Schema();
+      leafsch.addIntField("block");
+      leafsch.addIntField("id");
+      leafsch.addIntField("dataval");
+      idxname = "btbench" + (nextIndex++);
+      tx = new Transaction();
+      idx = new BTreeIndex(idxname, leafsch, tx);
+      insert = params.get("op").equals("insert");
+      if (!insert)
+         for (int i=0; i<KEYS; i++)
+            idx.insert(new IntConstant(i), new RID(i / 10, i % 10));
+      commit();
+   }
+
+   public int op(int thread) {
+      int key = ThreadLocalRandom.current().nextInt(KEYS);
+      int found = 0;
+      if (insert)
+         idx.insert(new IntConstant(key), new RID(key / 10, key % 10));
+      else {
+         idx.beforeFirst(new IntConstant(key));
+         while (idx.next())
+            found++;
+      }
+      if (++count % COMMIT_EVERY == 0)
+         commit();
+      return found;
+   }
+
+   public void tearDown() {
+      idx.close();
+      tx.commit();
+   }
+
+   private void commit() {
+      idx.close();
+      tx.commit();
+      tx = new Transaction();
+      idx = new BTreeIndex(idxname, leafsch, tx);
+   }
+}
@@ -0,0 +1,97 @@
+package simpledb.bench;
+
+import java.util.*;
+
+/**
+ * A benchmark run by the {@link Harness}.
+ * A benchmark declares its parameters and the numbers of threads
+ * to run it with; the harness runs it once for every combination.
+ * For each combination, {@link #setUp(Map, int)} is called,
+ * then {@link #op(int)} is called repeatedly by each thread
+ * for the warmup and measurement iterations,
+ * and finally {@link #tearDown()} is called.
+ * The harness combines the values returned by <tt>op</tt>,
+ * so that the JIT cannot discard the work they depend on.
+ */
+public abstract class Benchmark {
+   private String name;
+   private Map<String,String[]> params = new LinkedHashMap<String,String[]>();
+   private int[] threads = { 1 };
+   private int opsPerIteration = 0;
+
+   /**
+    * Creates a benchmark having the specified name.
+    * @param name the name reported in the results
+    */
+   protected Benchmark(String name) {
+      this.name = name;
+   }
+
+   /**
+    * Declares a parameter and the values it takes.
+    * @param name the name of the parameter
+    * @param values its values
+    */
+   protected void param(String name, String... values) {
+      params.put(name, values);
+   }
+
+   /**
+    * Declares the numbers of threads to run the benchmark with.
+    * @param counts the thread counts
+    */
+   protected void threads(int... counts) {
+      threads = counts;
+   }
+
+   /**
+    * Limits each thread to the specified number of operations
+    * per iteration, for operations too slow or too costly
+    * to be repeated for the whole length of an iteration.
+    * The iteration then lasts until every thread is done.
+    * @param n the number of operations per thread and iteration
+    */
+   protected void opsPerIteration(int n) {
+      opsPerIteration = n;
+   }
+
+   public String name() {
+      return name;
+   }
+
+   public Map<String,String[]> params() {
+      return params;
+   }
+
+   public int[] threadCounts() {
+      return threads;
+   }
+
+   public int opsPerIteration() {
+      return opsPerIteration;
+   }
+
+   /**
+    * Prepares a run of the benchmark.
+    * @param params the value of each parameter
+    * @param nthreads the number of threads that will call op
+    * @throws Exception if the benchmark cannot be prepared
+    */
+   public void setUp(Map<String,String> params, int nthreads) throws Exception {
+   }
+
+   /**
+    * Performs one operation.
+    * @param thread the number of the calling thread, from 0
+    * @return a value computed by the operation
+    * @throws Exception if the operation fails
+    */
+   public abstract int op(int thread) throws Exception;
+
+   /**
+    * Cleans up after a run of the benchmark.
+    * @throws Exception if the benchmark cannot be cleaned up
+    */
+   public void tearDown() throws Exception {
+   }
+}
@@ -0,0 +1,69 @@
+package simpledb.bench;
+
+import simpledb.buffer.*;
+import simpledb.file.*;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Pins and unpins random blocks of a file,
+ * using either the basic {@link BufferMgr} or an {@link AdvBufferMgr}
+ * with each replacement policy.
+ * With <tt>access=hit</tt> the blocks all fit in the pool;
+ * with <tt>access=miss</tt> the file is many times larger than the pool,
+ * so most pins read a block.
+ */
+public class BufferBench extends Benchmark {
+   private static final String FILE = "bufferbench.tbl";
+   private static final int POOL_SIZE = 64, FILE_BLOCKS = 1024;
+   private BufferMgr basic;
+   private AdvBufferMgr adv;
+   private int numblocks;
+
+   public BufferBench() {
+      super("buffer");
+      param("mgr", "basic", AdvBufferMgr.LRU, AdvBufferMgr.CLOCK,
+            AdvBufferMgr.LRU_K, AdvBufferMgr.TWO_Q);
+      param("access", "hit", "miss");
+      threads(1, 4);
+   }
+
+   public void setUp(Map<String,String> params, int nthreads) {
+      FileMgr fm = simpledb.server.SimpleDB.fileMgr();
+      Page p = new Page();
+      while (fm.size(FILE) < FILE_BLOCKS)
+         p.append(FILE);
+      String mgr = params.get("mgr");
+      if (mgr.equals("basic"))
+         basic = new BufferMgr(POOL_SIZE);
+      else
+         adv = new AdvBufferMgr(POOL_SIZE, mgr, nthreads);
+      numblocks = params.get("access").equals("hit") ? POOL_SIZE / 2 : FILE_BLOCKS;
+      for (int b=0; b<Math.min(numblocks, POOL_SIZE); b++)
+         unpin(pin(new Block(FILE, b)));
+   }
+
+   public int op(int thread) {
+      Block blk = new Block(FILE, ThreadLocalRandom.current().nextInt(numblocks));
+      Buffer buff = pin(blk);
+      int val = buff.getInt(0);
+      unpin(buff);
+      return val;
+   }
+
+   public void tearDown() {
+      basic = null;
+      adv = null;
+   }
+
+   private Buffer pin(Block blk) {
+      return basic != null ? basic.pin(blk) : adv.pin(blk);
+   }
+
+   private void unpin(Buffer buff) {
+      if (basic != null)
+         basic.unpin(buff);
+      else
+         adv.unpin(buff);
+   }
+}
@@ -0,0 +1,67 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Compares two result files written by {@link Harness}
+ * and reports the change in score of every benchmark run in both.
+ * A run is a regression if its score dropped by more than the
+ * threshold percentage and by more than the sum of the two errors.
+ * <p>
+ * Usage: <tt>java simpledb.bench.Compare baseline.jsonl current.jsonl [threshold]</tt>,
+ * where the threshold defaults to 10 (percent).
+ * The exit status is 1 if there is a regression.
+ */
+public class Compare {
+   private static final Pattern NAME = Pattern.compile("\"benchmark\":\"([^\"]*)\"");
+   private static final Pattern PARAMS = Pattern.compile("\"params\":\\{([^}]*)\\}");
+   private static final Pattern THREADS = Pattern.compile("\"threads\":(\\d+)");
+   private static final Pattern SCORE = Pattern.compile("\"score\":([-0-9.Ee]+)");
+   private static final Pattern ERROR = Pattern.compile("\"error\":([-0-9.Ee]+)");
+
+   public static void main(String[] args) throws IOException {
+      Map<String,double[]> baseline = read(args[0]);
+      Map<String,double[]> current = read(args[1]);
+      double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+      int regressions = 0;
+      for (Map.Entry<String,double[]> e : current.entrySet()) {
+         double[] base = baseline.get(e.getKey());
+         if (base == null)
+            continue;
+         double[] cur = e.getValue();
+         double change = (cur[0] - base[0]) * 100 / base[0];
+         boolean regression = change < -threshold && base[0] - cur[0] > base[1] + cur[1];
+         if (regression)
+            regressions++;
+         System.out.println(String.format(Locale.ROOT, "%-60s %14.1f %14.1f %+7.1f%%%s",
+                                          e.getKey(), base[0], cur[0], change,
+                                          regression ? "  REGRESSION" : ""));
+      }
+      System.exit(regressions > 0 ? 1 : 0);
+   }
+
+   /**
+    * Reads a result file into a map from run to score and error.
+    * A run is named by its benchmark, parameters and thread count.
+    */
+   private static Map<String,double[]> read(String filename) throws IOException {
+      Map<String,double[]> result = new LinkedHashMap<String,double[]>();
+      try (BufferedReader in = new BufferedReader(new FileReader(filename))) {
+         String line;
+         while ((line = in.readLine()) != null) {
+            Matcher name = NAME.matcher(line), params = PARAMS.matcher(line),
+                    threads = THREADS.matcher(line), score = SCORE.matcher(line),
+                    error = ERROR.matcher(line);
+            if (!(name.find() && params.find() && threads.find() && score.find() && error.find()))
+               continue;
+            String key = name.group(1) + " " + params.group(1).replace("\"", "")
+                         + " threads=" + threads.group(1);
+            result.put(key, new double[] { Double.parseDouble(score.group(1)),
+                                           Double.parseDouble(error.group(1)) });
+         }
+      }
+      return result;
+   }
+}
@@ -0,0 +1,200 @@
+package simpledb.bench;
+
+import simpledb.server.SimpleDB;
+import simpledb.tx.concurrency.LockTableBench;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the storage engine benchmarks and writes one JSON object
+ * per line for each benchmark, parameter combination and thread count.
+ * A line looks like
+ * <pre>
+ * {"benchmark":"buffer","params":{"mgr":"lru","access":"hit"},"threads":4,
+ *  "iterations":5,"score":1234567.8,"error":2345.6,"min":...,"max":...,"unit":"ops/s"}
+ * </pre>
+ * where the score is the mean throughput of the measurement iterations
+ * and the error is their standard deviation.
+ * Two result files can be compared with {@link Compare}.
+ * <p>
+ * Usage: <tt>java simpledb.bench.Harness [options]</tt>, where the options are
+ * <dl>
+ * <dt>-wi n<dd>the number of warmup iterations (default 3)
+ * <dt>-i n<dd>the number of measurement iterations (default 5)
+ * <dt>-r ms<dd>the length of an iteration in milliseconds (default 1000)
+ * <dt>-o file<dd>the result file (default bench-results.jsonl)
+ * <dt>-b regex<dd>runs only the benchmarks whose names match
+ * <dt>-bufs n<dd>the size of the system buffer pool (default 256)
+ * <dt>-direct b<dd>whether the database files use direct I/O (default false)
+ * </dl>
+ * The benchmarks run against a scratch database in the home directory,
+ * which is deleted afterwards.
+ */
+public class Harness {
+   private static volatile int sink;
+
+   static List<Benchmark> benchmarks() {
+      return Arrays.asList(new BufferBench(), new LockTableBench(), new LogBench(),
+                           new PageBench(), new BTreeBench(), new SortBench());
+   }
+
+   public static void main(String[] args) throws Exception {
+      int warmups = 3, iterations = 5;
+      long millis = 1000;
+      String outfile = "bench-results.jsonl";
+      Pattern filter = Pattern.compile(".*");
+      SimpleDB.BUFFER_SIZE = 256;
+      for (int i=0; i<args.length; i+=2) {
+         String opt = args[i], val = args[i+1];
+         if (opt.equals("-wi"))        warmups = Integer.parseInt(val);
+         else if (opt.equals("-i"))    iterations = Integer.parseInt(val);
+         else if (opt.equals("-r"))    millis = Long.parseLong(val);
+         else if (opt.equals("-o"))    outfile = val;
+         else if (opt.equals("-b"))    filter = Pattern.compile(val);
+         else if (opt.equals("-bufs")) SimpleDB.BUFFER_SIZE = Integer.parseInt(val);
+         else if (opt.equals("-direct")) SimpleDB.DIRECT_IO = Boolean.parseBoolean(val);
+         else throw new IllegalArgumentException("unknown option " + opt);
+      }
+
+      String dbname = "simpledb-bench-" + System.currentTimeMillis();
+      SimpleDB.WARM_SAVE_INTERVAL = 0;
+      SimpleDB.init(dbname);
+      File dbdir = SimpleDB.fileMgr().dbFile("").getAbsoluteFile();
+      try (PrintWriter out = new PrintWriter(new FileWriter(outfile))) {
+         for (Benchmark b : benchmarks()) {
+            if (!filter.matcher(b.name()).matches())
+               continue;
+            for (Map<String,String> params : combinations(b.params()))
+               for (int nthreads : b.threadCounts()) {
+                  b.setUp(params, nthreads);
+                  double[] scores;
+                  try {
+                     for (int i=0; i<warmups; i++)
+                        iteration(b, nthreads, millis);
+                     scores = new double[iterations];
+                     for (int i=0; i<iterations; i++)
+                        scores[i] = iteration(b, nthreads, millis);
+                  }
+                  finally {
+                     b.tearDown();
+                  }
+                  String line = result(b.name(), params, nthreads, scores);
+                  out.println(line);
+                  out.flush();
+                  System.err.println(line);
+               }
+         }
+      }
+      finally {
+         delete(dbdir);
+      }
+      System.exit(0);
+   }
+
+   /**
+    * Runs the benchmark with the specified number of threads
+    * for the specified time, or until each thread has performed
+    * the benchmark's number of operations per iteration.
+    * @return the throughput, in operations per second
+    */
+   private static double iteration(final Benchmark b, int nthreads, long millis) throws Exception {
+      final CountDownLatch start = new CountDownLatch(1);
+      final long[] ops = new long[nthreads];
+      final Exception[] failure = new Exception[1];
+      final AtomicBoolean running = new AtomicBoolean(true);
+      final int limit = b.opsPerIteration();
+      Thread[] workers = new Thread[nthreads];
+      for (int t=0; t<nthreads; t++) {
+         final int thread = t;
+         workers[t] = new Thread() {
+            public void run() {
+               int result = 0;
+               long count = 0;
+               try {
+                  start.await();
+                  while (running.get() && (limit == 0 || count < limit)) {
+                     result ^= b.op(thread);
+                     count++;
+                  }
+               }
+               catch (Exception e) {
+                  synchronized (failure) {
+                     failure[0] = e;
+                  }
+               }
+               ops[thread] = count;
+               sink ^= result;
+            }
+         };
+         workers[t].start();
+      }
+      long begin = System.nanoTime();
+      start.countDown();
+      if (limit == 0) {
+         Thread.sleep(millis);
+         running.set(false);
+      }
+      for (Thread w : workers)
+         w.join();
+      long elapsed = System.nanoTime() - begin;
+      if (failure[0] != null)
+         throw failure[0];
+      long total = 0;
+      for (long n : ops)
+         total += n;
+      return total * 1e9 / elapsed;
+   }
+
+   private static List<Map<String,String>> combinations(Map<String,String[]> params) {
+      List<Map<String,String>> result = new ArrayList<Map<String,String>>();
+      result.add(new LinkedHashMap<String,String>());
+      for (Map.Entry<String,String[]> e : params.entrySet()) {
+         List<Map<String,String>> next = new ArrayList<Map<String,String>>();
+         for (Map<String,String> partial : result)
+            for (String val : e.getValue()) {
+               Map<String,String> m = new LinkedHashMap<String,String>(partial);
+               m.put(e.getKey(), val);
+               next.add(m);
+            }
+         result = next;
+      }
+      return result;
+   }
+
+   private static String result(String name, Map<String,String> params, int nthreads, double[] scores) {
+      double sum = 0, min = Double.MAX_VALUE, max = 0;
+      for (double s : scores) {
+         sum += s;
+         min = Math.min(min, s);
+         max = Math.max(max, s);
+      }
+      double mean = sum / scores.length, var = 0;
+      for (double s : scores)
+         var += (s - mean) * (s - mean);
+      double error = scores.length > 1 ? Math.sqrt(var / (scores.length - 1)) : 0;
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\"benchmark\":\"").append(name).append("\",\"params\":{");
+      String sep = "";
+      for (Map.Entry<String,String> e : params.entrySet()) {
+         sb.append(sep).append('"').append(e.getKey()).append("\":\"").append(e.getValue()).append('"');
+         sep = ",";
+      }
+      sb.append("},\"threads\":").append(nthreads)
+        .append(",\"iterations\":").append(scores.length)
+        .append(String.format(Locale.ROOT, ",\"score\":%.1f,\"error\":%.1f,\"min\":%.1f,\"max\":%.1f",
+                              mean, error, min, max))
+        .append(",\"unit\":\"ops/s\"}");
+      return sb.toString();
+   }
+
+   private static void delete(File f) {
+      File[] children = f.listFiles();
+      if (children != null)
+         for (File child : children)
+            delete(child);
+      f.delete();
+   }
+}
@@ -0,0 +1,38 @@
+package simpledb.bench;
+
+import simpledb.log.LogMgr;
+import java.util.Map;
+
+/**
+ * Appends records to a log file that is not the system log.
+ * A small record holds two integers, as a commit record does;
+ * a large one also holds a 100-character string,
+ * as a record of a string update does.
+ */
+public class LogBench extends Benchmark {
+   private static int nextLog = 0;
+   private LogMgr logMgr;
+   private Object[] rec;
+
+   public LogBench() {
+      super("log");
+      param("record", "small", "large");
+      threads(1, 4);
+   }
+
+   public void setUp(Map<String,String> params, int nthreads) {
+      logMgr = new LogMgr("logbench" + (nextLog++) + ".log");
+      if (params.get("record").equals("small"))
+         rec = new Object[] { 2, 17 };
+      else {
+         StringBuilder sb = new StringBuilder();
+         for (int i=0; i<100; i++)
+            sb.append((char) ('a' + i % 26));
+         rec = new Object[] { 5, 17, "bench.tbl", 3, 40, sb.toString() };
+      }
+   }
+
+   public int op(int thread) {
+      return logMgr.append(rec);
+   }
+}
@@ -0,0 +1,37 @@
+package simpledb.bench;
+
+import simpledb.file.Page;
+import java.util.Map;
+import static simpledb.file.Page.*;
+
+/**
+ * Writes and reads back a value at successive offsets of a page.
+ */
+public class PageBench extends Benchmark {
+   private static final String VALUE = "benchmark value";
+   private Page page;
+   private boolean ints;
+   private int slots, next = 0;
+
+   public PageBench() {
+      super("page");
+      param("type", "int", "string");
+   }
+
+   public void setUp(Map<String,String> params, int nthreads) {
+      page = new Page();
+      ints = params.get("type").equals("int");
+      slots = blockSize() / (ints ? INT_SIZE : STR_SIZE(VALUE.length()));
+   }
+
+   public int op(int thread) {
+      int slot = next++ % slots;
+      if (ints) {
+         page.setInt(slot * INT_SIZE, slot);
+         return page.getInt(slot * INT_SIZE);
+      }
+      int offset = slot * STR_SIZE(VALUE.length());
+      page.setString(offset, VALUE);
+      return page.getString(offset).length();
+   }
+}
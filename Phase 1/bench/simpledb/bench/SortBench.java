@@ -0,0 +1,53 @@
+package simpledb.bench;
+
+import simpledb.materialize.SortPlan;
+import simpledb.query.*;
+import simpledb.record.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import java.util.*;
+
+/**
+ * Sorts a table of random integers with a {@link SortPlan}
+ * and reads the sorted output; one operation is one complete sort.
+ */
+public class SortBench extends Benchmark {
+   private static int nextTable = 0;
+   private String tblname;
+
+   public SortBench() {
+      super("sort");
+      param("rows", "100", "1000");
+   }
+
+   public void setUp(Map<String,String> params, int nthreads) {
+      tblname = "sortbench" + (nextTable++);
+      Schema sch = new Schema();
+      sch.addIntField("a");
+      sch.addIntField("b");
+      Transaction tx = new Transaction();
+      SimpleDB.mdMgr().createTable(tblname, sch, tx);
+      TableScan ts = new TableScan(SimpleDB.mdMgr().getTableInfo(tblname, tx), tx);
+      Random rand = new Random(42);
+      int rows = Integer.parseInt(params.get("rows"));
+      for (int i=0; i<rows; i++) {
+         ts.insert();
+         ts.setInt("a", rand.nextInt());
+         ts.setInt("b", i);
+      }
+      ts.close();
+      tx.commit();
+   }
+
+   public int op(int thread) {
+      Transaction tx = new Transaction();
+      Plan p = new SortPlan(new TablePlan(tblname, tx), Arrays.asList("a"), tx);
+      Scan s = p.open();
+      int count = 0;
+      while (s.next())
+         count++;
+      s.close();
+      tx.commit();
+      return count;
+   }
+}
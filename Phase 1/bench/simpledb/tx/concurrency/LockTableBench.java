@@ -0,0 +1,51 @@
+package simpledb.tx.concurrency;
+
+import simpledb.bench.Benchmark;
+import simpledb.file.Block;
+import java.util.Map;
+
+/**
+ * Acquires and releases locks in a {@link LockTable}.
+ * With <tt>blocks=private</tt> each thread locks its own blocks;
+ * with <tt>blocks=shared</tt> all threads lock the same blocks,
+ * so that xLocks wait for each other.
+ * The benchmark lives in the lock table's package,
+ * since the lock table is not public.
+ */
+public class LockTableBench extends Benchmark {
+   private static final int BLOCKS = 64;
+   private LockTable locktbl;
+   private Block[][] blocks;
+   private int[] next;
+   private boolean xlock;
+
+   public LockTableBench() {
+      super("locktable");
+      param("mode", "slock", "xlock");
+      param("blocks", "private", "shared");
+      threads(1, 4);
+   }
+
+   public void setUp(Map<String,String> params, int nthreads) {
+      locktbl = new LockTable();
+      xlock = params.get("mode").equals("xlock");
+      boolean shared = params.get("blocks").equals("shared");
+      blocks = new Block[nthreads][BLOCKS];
+      next = new int[nthreads * 16];
+      for (int t=0; t<nthreads; t++)
+         for (int b=0; b<BLOCKS; b++)
+            blocks[t][b] = new Block("locktable" + (shared ? 0 : t), b);
+   }
+
+   public int op(int thread) {
+      // counters are spaced apart so that threads do not share a cache line
+      int i = next[thread * 16]++;
+      Block blk = blocks[thread][i % BLOCKS];
+      if (xlock)
+         locktbl.xLock(blk);
+      else
+         locktbl.sLock(blk);
+      locktbl.unlock(blk);
+      return i;
+   }
+}
@@ -1,6 +1,17 @@
 package simpledb.buffer;
 
 import simpledb.file.*;
+import simpledb.server.SimpleDB;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The publicly-accessible buffer manager.
@@ -10,17 +21,70 @@ import simpledb.file.*;
  * {@link #pinNew(String, PageFormatter) pinNew}
  * will never return null.
  * If no buffers are currently available, then the
- * calling thread will be placed on a waiting list.
- * The waiting threads are removed from the list when
- * a buffer becomes available.
+ * calling thread will be placed at the end of a FIFO waiting list.
+ * Only the thread at the head of the list tries for a buffer;
+ * when a buffer is unpinned, that thread alone is woken up,
+ * and threads arriving later cannot take the buffer ahead of it
+ * (unless the block they want is already in the pool).
  * If a thread has been waiting for a buffer for an
  * excessive amount of time (currently, 10 seconds)
  * then a {@link BufferAbortException} is thrown.
+ * <p>
+ * The pool is divided into partitions, each having its own
+ * frames, lock, and replacement state.
+ * A block always lives in the partition determined by its hash code,
+ * so threads that pin unrelated blocks rarely contend for a lock.
+ * When a partition has no unpinned frame, a frame is stolen from
+ * another partition.
+ * <p>
+ * A background {@link PageCleaner} can be started to write dirty
+ * pages before they are replaced, so that a pin rarely has to
+ * write a page before reading its own.
+ * A {@link Prefetcher} can also be started to read blocks ahead
+ * of sequential scans.
+ * Bulk operations can confine themselves to a small {@link BufferRing},
+ * so that a large scan does not replace the rest of the pool.
+ * Statistics about the pool are available from {@link #stats()}.
+ * <p>
+ * Besides its own pool, a buffer manager can host named pools,
+ * each with its own size and replacement policy
+ * (see {@link #addPool(String, int, String)}).
+ * The blocks of a file that is routed to a named pool are pinned
+ * in that pool, so that the file neither evicts nor is evicted by
+ * the blocks of other files.
  * @author Edward Sciore
  */
 public class AdvBufferMgr {
+	/**
+	 * The names of the supported replacement policies.
+	 * LRU evicts the unpinned buffer with the oldest access time;
+	 * CLOCK approximates it with a reference bit and a rotating hand.
+	 * LRU_K and TWO_Q are scan-resistant: a block that is read only
+	 * once is replaced before blocks that are read repeatedly.
+	 * @see ReplacementPolicy
+	 */
+	public static final String LRU = "lru", CLOCK = "clock",
+			LRU_K = "lru-k", TWO_Q = "2q";
+
+	/**
+	 * The largest number of buffers in a {@link BufferRing}.
+	 */
+	public static final int MAX_RING_SIZE = 16;
+
 	private static final long MAX_TIME = 10000; // 10 seconds
-	private AdvancedBufferMgr bufferMgr;
+	private static final int MIN_FRAMES_PER_PARTITION = 8;
+	private AdvancedBufferMgr[] partitions;
+	private AtomicInteger nextPartition = new AtomicInteger();
+	private ConcurrentLinkedQueue<Thread> waitList = new ConcurrentLinkedQueue<Thread>();
+	private PageCleaner cleaner;
+	private Prefetcher prefetcher;
+	private DirtyFrames dirtyFrames = new DirtyFrames();
+	private BufferStats stats = new BufferStats(this);
+	private AtomicInteger numbuffers = new AtomicInteger();
+	private AtomicInteger toRetire = new AtomicInteger();
+	private int nextIndex = 0;
+	private Map<String,AdvBufferMgr> pools = new ConcurrentHashMap<String,AdvBufferMgr>();
+	private Map<String,AdvBufferMgr> routes = new ConcurrentHashMap<String,AdvBufferMgr>();
 
 	/**
 	 * Creates a new buffer manager having the specified
@@ -36,7 +100,70 @@ public class AdvBufferMgr {
 	 * @param numbuffers the number of buffer slots to allocate
 	 */
 	public AdvBufferMgr(int numbuffers) {
-		bufferMgr = new AdvancedBufferMgr(numbuffers);
+		this(numbuffers, LRU);
+	}
+
+	/**
+	 * Creates a new buffer manager having the specified
+	 * number of buffers and replacement policy,
+	 * in a single partition.
+	 * @param numbuffers the number of buffer slots to allocate
+	 * @param policy the name of the replacement policy, such as {@link #LRU}
+	 */
+	public AdvBufferMgr(int numbuffers, String policy) {
+		this(numbuffers, policy, 1);
+	}
+
+	/**
+	 * Creates a new buffer manager having the specified
+	 * number of buffers and replacement policy,
+	 * divided into the specified number of partitions.
+	 * The number of partitions is reduced if necessary so that
+	 * each partition starts with a reasonable number of frames.
+	 * The pages of all the buffers are held in a single {@link FrameArena}.
+	 * @param numbuffers the number of buffer slots to allocate
+	 * @param policy the name of the replacement policy, such as {@link #LRU}
+	 * @param numpartitions the desired number of partitions
+	 */
+	public AdvBufferMgr(int numbuffers, String policy, int numpartitions) {
+		numpartitions = Math.min(numpartitions, numbuffers / MIN_FRAMES_PER_PARTITION);
+		numpartitions = Math.max(numpartitions, 1);
+		partitions = new AdvancedBufferMgr[numpartitions];
+		for (int i=0; i<numpartitions; i++)
+			partitions[i] = new AdvancedBufferMgr(newPolicy(policy), stats);
+		addFrames(numbuffers);
+	}
+
+	/**
+	 * Changes the number of buffers in the pool while it is in use.
+	 * When the pool grows, the new buffers are spread over the
+	 * partitions and are available immediately.
+	 * When the pool shrinks, unpinned buffers are removed at once,
+	 * writing their pages first if they are dirty;
+	 * if too few buffers are unpinned, the remaining ones are removed
+	 * as they are unpinned.
+	 * No pin waits for the pool to shrink.
+	 * <p>
+	 * The new buffers' pages are held in a new {@link FrameArena},
+	 * whose memory is released once all its buffers have been removed.
+	 * @param newsize the desired number of buffers, at least 1
+	 */
+	public synchronized void resize(int newsize) {
+		if (newsize < 1)
+			throw new IllegalArgumentException("buffer pool needs at least one buffer");
+		int delta = newsize - (numbuffers.get() - toRetire.get());
+		if (delta > 0) {
+			int cancelled = Math.min(delta, toRetire.get());
+			toRetire.addAndGet(-cancelled);
+			addFrames(delta - cancelled);
+			wakeHead();
+		}
+		else if (delta < 0) {
+			toRetire.addAndGet(-delta);
+			int start = nextPartition.getAndIncrement();
+			for (int i=0; i<partitions.length && toRetire.get() > 0; i++)
+				retireFrames(partitions[Math.floorMod(start + i, partitions.length)]);
+		}
 	}
 
 	/**
@@ -47,20 +174,121 @@ public class AdvBufferMgr {
 	 * @param blk a reference to a disk block
 	 * @return the buffer pinned to that block
 	 */
-	public synchronized Buffer pin(Block blk) {
-		try {
-			long timestamp = System.currentTimeMillis();
-			Buffer buff = bufferMgr.pin(blk);
-			while (buff == null && !waitingTooLong(timestamp)) {
-				wait(MAX_TIME);
-				buff = bufferMgr.pin(blk);
-			}
+	public Buffer pin(Block blk) {
+		AdvBufferMgr pool = poolFor(blk.fileName());
+		if (pool != this)
+			return pool.pin(blk);
+		Prefetcher p = prefetcher;
+		if (p != null)
+			p.pinned(blk);
+		return waitAndPin(blk);
+	}
+
+	/**
+	 * Pins a buffer to the specified block on behalf of
+	 * a bulk operation, using the operation's ring of buffers.
+	 * If the block is not in the pool, it is read into the ring's
+	 * oldest buffer when possible, so that the operation does not
+	 * replace buffers that other transactions are using.
+	 * The blocks are not reported to the prefetcher,
+	 * whose reads would fill the rest of the pool.
+	 * @param blk a reference to a disk block
+	 * @param ring the operation's ring, or null to use the whole pool
+	 * @return the buffer pinned to that block
+	 */
+	public Buffer pin(Block blk, BufferRing ring) {
+		if (ring == null)
+			return pin(blk);
+		AdvBufferMgr pool = poolFor(blk.fileName());
+		if (pool != this)
+			return pool.pin(blk, ring);
+		AdvancedBufferMgr home = partitionFor(blk);
+		Buffer buff = home.pinIfResident(blk);
+		if (buff != null)
+			return buff;
+		Buffer frame = ring.oldest();
+		if (frame != null && partitionFor(ring.oldestBlock()).detach(frame, ring.oldestBlock())) {
+			buff = home.pinInto(blk, frame);
 			if (buff == null)
-				throw new BufferAbortException();
+				wakeHead(); // the frame went back to the pool as an empty slot
+		}
+		if (buff == null)
+			buff = waitAndPin(blk);
+		ring.replace(buff);
+		return buff;
+	}
+
+	/**
+	 * Pins a buffer to a new block in the specified file
+	 * on behalf of a bulk operation, reusing the oldest buffer
+	 * of the operation's ring when possible.
+	 * @param filename the name of the file
+	 * @param fmtr the formatter used to initialize the page
+	 * @param ring the operation's ring, or null to use the whole pool
+	 * @return the buffer pinned to that block
+	 */
+	public Buffer pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+		if (ring == null)
+			return pinNew(filename, fmtr);
+		AdvBufferMgr pool = poolFor(filename);
+		if (pool != this)
+			return pool.pinNew(filename, fmtr, ring);
+		Buffer buff;
+		Buffer frame = ring.oldest();
+		if (frame != null && partitionFor(ring.oldestBlock()).detach(frame, ring.oldestBlock())) {
+			frame.assignToNew(filename, fmtr);
+			buff = partitionFor(frame.block()).pinLoaded(frame);
+		}
+		else
+			buff = pinNew(filename, fmtr);
+		ring.replace(buff);
+		return buff;
+	}
+
+	/**
+	 * Returns a new ring of buffers for a bulk operation.
+	 * The ring holds a small fraction of the pool,
+	 * and at most {@link #MAX_RING_SIZE} buffers.
+	 * @return a new, empty ring
+	 */
+	public BufferRing newRing() {
+		return new BufferRing(Math.max(1, Math.min(MAX_RING_SIZE, size() / 8)));
+	}
+
+	/**
+	 * Returns true if an operation that reads the specified
+	 * number of blocks should use a {@link BufferRing},
+	 * because it would otherwise replace a large part of the pool.
+	 * @param numblocks the number of blocks the operation will read
+	 * @return true if the operation is a bulk operation
+	 */
+	public boolean isBulk(int numblocks) {
+		return numblocks > size() / 4;
+	}
+
+	/**
+	 * Pins the block, waiting in the FIFO wait list if no buffer is available.
+	 */
+	private Buffer waitAndPin(Block blk) {
+		Buffer buff = waitList.isEmpty() ? tryPin(blk) : partitionFor(blk).pinIfResident(blk);
+		if (buff != null)
 			return buff;
+		waitList.add(Thread.currentThread());
+		long start = System.currentTimeMillis();
+		try {
+			long deadline = start + MAX_TIME;
+			while (true) {
+				if (waitList.peek() == Thread.currentThread()) {
+					buff = tryPin(blk);
+					if (buff != null)
+						return buff;
+				}
+				waitForTurn(deadline);
+			}
 		}
-		catch(InterruptedException e) {
-			throw new BufferAbortException();
+		finally {
+			leaveWaitList();
+			stats.pinWait(System.currentTimeMillis() - start);
 		}
 	}
 
@@ -73,41 +301,226 @@ public class AdvBufferMgr {
 	 * @param fmtr the formatter used to initialize the page
 	 * @return the buffer pinned to that block
 	 */
-	public synchronized Buffer pinNew(String filename, PageFormatter fmtr) {
+	public Buffer pinNew(String filename, PageFormatter fmtr) {
+		AdvBufferMgr pool = poolFor(filename);
+		if (pool != this)
+			return pool.pinNew(filename, fmtr);
+		Buffer buff = waitList.isEmpty() ? tryPinNew(filename, fmtr) : null;
+		if (buff != null)
+			return buff;
+		waitList.add(Thread.currentThread());
+		long start = System.currentTimeMillis();
 		try {
-			long timestamp = System.currentTimeMillis();
-			Buffer buff = bufferMgr.pinNew(filename, fmtr);
-			while (buff == null && !waitingTooLong(timestamp)) {
-				wait(MAX_TIME);
-				buff = bufferMgr.pinNew(filename, fmtr);
+			long deadline = start + MAX_TIME;
+			while (true) {
+				if (waitList.peek() == Thread.currentThread()) {
+					buff = tryPinNew(filename, fmtr);
+					if (buff != null)
+						return buff;
+				}
+				waitForTurn(deadline);
 			}
-			if (buff == null)
-				throw new BufferAbortException();
-			return buff;
 		}
-		catch(InterruptedException e) {
-			throw new BufferAbortException();
+		finally {
+			leaveWaitList();
+			stats.pinWait(System.currentTimeMillis() - start);
 		}
 	}
 
 	/**
 	 * Unpins the specified buffer.
 	 * If the buffer's pin count becomes 0,
-	 * then the threads on the wait list are notified.
+	 * then the thread at the head of the wait list is woken up.
 	 * @param buff the buffer to be unpinned
 	 */
-	public synchronized void unpin(Buffer buff) {
-		bufferMgr.unpin(buff);
-		if (!buff.isPinned())
-			notifyAll();
+	public void unpin(Buffer buff) {
+		AdvBufferMgr pool = poolFor(buff.block().fileName());
+		if (pool != this) {
+			pool.unpin(buff);
+			return;
+		}
+		AdvancedBufferMgr partition = partitionFor(buff.block());
+		partition.unpin(buff);
+		if (!buff.isPinned()) {
+			if (toRetire.get() > 0)
+				retireFrames(partition);
+			wakeHead();
+		}
 	}
 
 	/**
 	 * Flushes the dirty buffers modified by the specified transaction.
+	 * Only the buffers that the transaction modified are examined,
+	 * each under the lock of the partition holding it.
+	 * The named pools are flushed as well.
 	 * @param txnum the transaction's id number
 	 */
 	public void flushAll(int txnum) {
-		bufferMgr.flushAll(txnum);
+		for (Buffer buff : dirtyFrames.take(txnum))
+			partitionFor(buff.block()).flush(buff, txnum);
+		for (AdvBufferMgr pool : pools.values())
+			pool.flushAll(txnum);
+	}
+
+	/**
+	 * Returns true if there is a replacement policy of the specified name.
+	 * @param name the name of a policy
+	 * @return true if the policy exists
+	 */
+	public static boolean isPolicy(String name) {
+		return name.equals(LRU) || name.equals(CLOCK) || name.equals(LRU_K) || name.equals(TWO_Q);
+	}
+
+	/**
+	 * Creates a named pool having the specified number of buffers
+	 * and replacement policy, and the same number of partitions
+	 * as this pool.
+	 * The page cleaner and prefetcher are started for the new pool
+	 * if they are running for this one.
+	 * @param name the name of the pool
+	 * @param numbuffers the number of buffers in the pool
+	 * @param policy the name of the replacement policy, such as {@link #LRU}
+	 * @return the new pool
+	 */
+	public synchronized AdvBufferMgr addPool(String name, int numbuffers, String policy) {
+		if (pools.containsKey(name))
+			throw new IllegalArgumentException("buffer pool " + name + " already exists");
+		AdvBufferMgr pool = new AdvBufferMgr(numbuffers, policy, partitions.length);
+		if (cleaner != null)
+			pool.startPageCleaner(cleaner.interval());
+		if (prefetcher != null)
+			pool.startPrefetcher(prefetcher.window());
+		pools.put(name, pool);
+		return pool;
+	}
+
+	/**
+	 * Returns the named pool.
+	 * Its statistics are available from its {@link #stats()} method,
+	 * and it can be resized through its {@link #resize(int)} method.
+	 * @param name the name of the pool
+	 * @return the pool, or null if there is no pool of that name
+	 */
+	public AdvBufferMgr pool(String name) {
+		return pools.get(name);
+	}
+
+	/**
+	 * Routes the blocks of the specified file to the named pool,
+	 * or back to this pool if the name is null.
+	 * The file's unpinned blocks are first removed from the pool that
+	 * currently holds them, writing their pages if they are dirty.
+	 * A file must not be rerouted while other threads may pin its blocks;
+	 * routes are therefore set when the database starts up, or for
+	 * a file that has no blocks, by a transaction that holds the lock
+	 * on the end of the file (see {@link simpledb.tx.Transaction#lockFile}).
+	 * @param filename the name of the file
+	 * @param poolname the name of the pool, or null
+	 * @throws IllegalArgumentException if there is no pool of that name
+	 * @throws IllegalStateException if a block of the file is pinned
+	 */
+	public synchronized void route(String filename, String poolname) {
+		AdvBufferMgr pool = this;
+		if (poolname != null) {
+			pool = pools.get(poolname);
+			if (pool == null)
+				throw new IllegalArgumentException("unknown buffer pool " + poolname);
+		}
+		AdvBufferMgr current = poolFor(filename);
+		if (current == pool)
+			return;
+		if (!current.dropFile(filename, false))
+			throw new IllegalStateException("blocks of " + filename + " are pinned");
+		if (pool == this)
+			routes.remove(filename);
+		else
+			routes.put(filename, pool);
+	}
+
+	/**
+	 * Removes the blocks of the specified file from the pool
+	 * without writing their pages, because the file is about to be deleted.
+	 * The file's route, if any, is removed too.
+	 * @param filename the name of the file
+	 * @throws IllegalStateException if a block of the file is pinned
+	 */
+	public void discardFile(String filename) {
+		AdvBufferMgr pool = poolFor(filename);
+		if (!pool.dropFile(filename, true))
+			throw new IllegalStateException("blocks of " + filename + " are pinned");
+		if (pool.prefetcher != null)
+			pool.prefetcher.forget(filename);
+		routes.remove(filename);
+	}
+
+	/**
+	 * Starts a background thread that writes the dirty pages
+	 * of the buffers likely to be replaced next.
+	 * Does nothing if the thread has already been started.
+	 * @param interval the number of milliseconds between cleaning rounds
+	 */
+	public synchronized void startPageCleaner(long interval) {
+		if (cleaner != null)
+			return;
+		cleaner = new PageCleaner(partitions, stats, interval);
+		cleaner.start();
+	}
+
+	/**
+	 * Starts a background thread that reads blocks ahead of
+	 * sequential scans into unpinned buffers.
+	 * Does nothing if the thread has already been started.
+	 * @param window the number of blocks to read ahead of a scan
+	 */
+	public synchronized void startPrefetcher(int window) {
+		if (prefetcher != null)
+			return;
+		prefetcher = new Prefetcher(this, stats, window);
+		prefetcher.start();
+	}
+
+	/**
+	 * Returns the statistics of this buffer pool.
+	 * @return the pool's statistics
+	 */
+	public BufferStats stats() {
+		return stats;
+	}
+
+	/**
+	 * Returns the blocks in the pool, approximately
+	 * in order of recency, most recently used first.
+	 * The lists of the partitions and of the named pools are interleaved,
+	 * since the recency of blocks in different partitions is not known.
+	 * @return the resident blocks
+	 */
+	public List<Block> residentBlocks() {
+		List<List<Block>> lists = new ArrayList<List<Block>>();
+		int longest = 0;
+		for (AdvancedBufferMgr partition : partitions) {
+			List<Block> blocks = partition.residentBlocks();
+			lists.add(blocks);
+			longest = Math.max(longest, blocks.size());
+		}
+		for (AdvBufferMgr pool : pools.values()) {
+			List<Block> blocks = pool.residentBlocks();
+			lists.add(blocks);
+			longest = Math.max(longest, blocks.size());
+		}
+		List<Block> result = new ArrayList<Block>();
+		for (int i=0; i<longest; i++)
+			for (List<Block> blocks : lists)
+				if (i < blocks.size())
+					result.add(blocks.get(i));
+		return result;
+	}
+
+	/**
+	 * Returns the number of buffers in the pool.
+	 * @return the number of buffers
+	 */
+	public int size() {
+		return numbuffers.get();
 	}
 
 	/**
@@ -115,11 +528,289 @@ public class AdvBufferMgr {
 	 * @return the number of available buffers
 	 */
 	public int available() {
-		return bufferMgr.available();
+		int numAvailable = 0;
+		for (AdvancedBufferMgr partition : partitions)
+			numAvailable += partition.available();
+		return numAvailable;
+	}
+
+	/**
+	 * Creates the specified number of buffers, with pages
+	 * held in a new arena, and adds them to the partitions in turn.
+	 * @param count the number of buffers to add
+	 */
+	private synchronized void addFrames(int count) {
+		if (count == 0)
+			return;
+		FrameArena arena = new FrameArena(count);
+		for (int i=0; i<count; i++) {
+			Buffer buff = new Buffer(dirtyFrames, arena.frame(i));
+			buff.setIndex(nextIndex);
+			partitions[nextIndex % partitions.length].addFrame(buff);
+			nextIndex++;
+			numbuffers.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes unpinned buffers from the partition
+	 * while buffers remain to be removed from the pool.
+	 * Each removed buffer's page is written first if it is dirty.
+	 * @param partition the partition to take buffers from
+	 */
+	private void retireFrames(AdvancedBufferMgr partition) {
+		while (true) {
+			int n = toRetire.get();
+			if (n <= 0)
+				return;
+			if (!toRetire.compareAndSet(n, n - 1))
+				continue;
+			if (partition.takeFrame() == null) {
+				toRetire.incrementAndGet();
+				return;
+			}
+			numbuffers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Pins the block in its home partition, stealing a frame
+	 * from another partition if the home partition has none to spare.
+	 * @param blk a reference to a disk block
+	 * @return the pinned buffer, or null if no frame could be found
+	 */
+	private Buffer tryPin(Block blk) {
+		AdvancedBufferMgr home = partitionFor(blk);
+		Buffer buff = home.pin(blk);
+		if (buff != null || partitions.length == 1)
+			return buff;
+		for (AdvancedBufferMgr partition : partitions) {
+			if (partition == home)
+				continue;
+			Buffer frame = partition.takeFrame();
+			if (frame != null) {
+				home.addFrame(frame);
+				buff = home.pin(blk);
+				if (buff != null)
+					return buff;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Appends a new block using a frame detached from some partition,
+	 * and then pins the frame in the new block's home partition.
+	 * The partitions are tried in rotation, so that appends
+	 * do not all drain the same partition.
+	 * The frame is formatted and written outside of any partition lock;
+	 * no other thread can pin the new block before it is registered,
+	 * because appending requires an exclusive lock on the end of the file.
+	 * @param filename the name of the file
+	 * @param fmtr the formatter used to initialize the page
+	 * @return the pinned buffer, or null if no frame could be found
+	 */
+	private Buffer tryPinNew(String filename, PageFormatter fmtr) {
+		if (partitions.length == 1)
+			return partitions[0].pinNew(filename, fmtr);
+		int start = nextPartition.getAndIncrement();
+		for (int i=0; i<partitions.length; i++) {
+			AdvancedBufferMgr partition = partitions[Math.floorMod(start + i, partitions.length)];
+			Buffer frame = partition.takeFrame();
+			if (frame != null) {
+				frame.assignToNew(filename, fmtr);
+				return partitionFor(frame.block()).pinLoaded(frame);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the pool to which the blocks of the specified file are routed.
+	 * @param filename the name of the file
+	 * @return a named pool, or this pool
+	 */
+	private AdvBufferMgr poolFor(String filename) {
+		if (routes.isEmpty())
+			return this;
+		AdvBufferMgr pool = routes.get(filename);
+		return pool == null ? this : pool;
+	}
+
+	/**
+	 * Removes the unpinned blocks of the specified file from this pool.
+	 * @param filename the name of the file
+	 * @param discard true if dirty pages are not written
+	 * @return false if some block of the file is still pinned
+	 */
+	private boolean dropFile(String filename, boolean discard) {
+		boolean dropped = true;
+		for (AdvancedBufferMgr partition : partitions)
+			dropped &= partition.dropFile(filename, discard);
+		return dropped;
+	}
+
+	/**
+	 * Returns the partition in which the specified block lives.
+	 * @param blk a reference to a disk block
+	 * @return the block's home partition
+	 */
+	AdvancedBufferMgr partitionFor(Block blk) {
+		if (partitions.length == 1)
+			return partitions[0];
+		int h = blk.hashCode();
+		h ^= (h >>> 16);
+		return partitions[Math.floorMod(h, partitions.length)];
+	}
+
+	/**
+	 * Creates the replacement policy having the specified name.
+	 * @param name the name of the policy
+	 * @return a new policy object
+	 */
+	static ReplacementPolicy newPolicy(String name) {
+		if (name.equals(LRU))
+			return new LRUPolicy();
+		else if (name.equals(CLOCK))
+			return new ClockPolicy();
+		else if (name.equals(LRU_K))
+			return new LRUKPolicy();
+		else if (name.equals(TWO_Q))
+			return new TwoQueuePolicy();
+		else
+			throw new IllegalArgumentException("unknown replacement policy " + name);
+	}
+
+	/**
+	 * Parks the calling thread until it is woken up by {@link #wakeHead()}
+	 * or its deadline passes.
+	 * A wake-up that arrives before the thread parks is not lost,
+	 * because the thread's permit makes the park return immediately.
+	 * @param deadline the time by which a buffer must have been found
+	 */
+	private void waitForTurn(long deadline) {
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0)
+			throw new BufferAbortException();
+		LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(remaining));
+		if (Thread.interrupted())
+			throw new BufferAbortException();
+	}
+
+	/**
+	 * Removes the calling thread from the wait list,
+	 * and lets the new head of the list try for a buffer,
+	 * since there may be more than one buffer available.
+	 */
+	private void leaveWaitList() {
+		waitList.remove(Thread.currentThread());
+		wakeHead();
+	}
+
+	/**
+	 * Reads blocks <tt>first</tt> through <tt>last</tt> of the file
+	 * into unpinned buffers, skipping the blocks that are
+	 * in the pool or beyond the end of the file.
+	 * Each block's buffer is taken from the block's home partition,
+	 * and consecutive blocks are read with a single request.
+	 * The requests for all the runs of consecutive blocks are queued
+	 * before any is waited for, so that the scheduler can perform
+	 * them together.
+	 * Reading stops when a partition has no unpinned buffer,
+	 * or when threads are waiting for a buffer.
+	 * @param filename the name of the file
+	 * @param first the number of the first block to read
+	 * @param last the number of the last block to read
+	 */
+	void readAhead(String filename, int first, int last) {
+		AdvBufferMgr pool = poolFor(filename);
+		if (pool != this) {
+			pool.readAhead(filename, first, last);
+			return;
+		}
+		last = Math.min(last, SimpleDB.fileMgr().size(filename) - 1);
+		List<Buffer> frames = new ArrayList<Buffer>();
+		List<LoadingRun> loading = new ArrayList<LoadingRun>();
+		int start = first;
+		try {
+			for (int b = first; b <= last; b++) {
+				Block blk = new Block(filename, b);
+				AdvancedBufferMgr home = partitionFor(blk);
+				Buffer frame = null;
+				if (!home.isResident(blk)) {
+					if (hasWaiters() || (frame = home.reserveFrame(blk)) == null)
+						break;
+				}
+				if (frame != null) {
+					if (frames.isEmpty())
+						start = b;
+					frames.add(frame);
+				}
+				else if (!frames.isEmpty()) {
+					loading.add(new LoadingRun(new Block(filename, start), frames));
+					frames.clear();
+				}
+			}
+		}
+		finally {
+			if (!frames.isEmpty())
+				loading.add(new LoadingRun(new Block(filename, start), frames));
+			for (LoadingRun run : loading)
+				loadReserved(run);
+		}
+	}
+
+	/**
+	 * A run of consecutive blocks being read into reserved buffers.
+	 */
+	private static class LoadingRun {
+		Block first;
+		Buffer[] buffs;
+		IORequest request;
+
+		LoadingRun(Block first, List<Buffer> frames) {
+			this.first = first;
+			this.buffs = frames.toArray(new Buffer[frames.size()]);
+			this.request = Buffer.readAsync(first, buffs);
+		}
+	}
+
+	/**
+	 * Waits for the read of a run of blocks and
+	 * adds the reserved buffers to their home partitions.
+	 * If the read fails, the buffers are returned as empty slots.
+	 */
+	private void loadReserved(LoadingRun run) {
+		String filename = run.first.fileName();
+		Buffer[] buffs = run.buffs;
+		try {
+			run.request.await();
+		}
+		catch (RuntimeException e) {
+			for (int i=0; i<buffs.length; i++) {
+				Block blk = new Block(filename, run.first.number() + i);
+				partitionFor(blk).cancelPrefetch(blk, buffs[i]);
+			}
+			return;
+		}
+		Buffer.assignToBlocks(run.first, buffs);
+		for (Buffer buff : buffs)
+			partitionFor(buff.block()).addPrefetched(buff);
+		stats.prefetched(buffs.length);
+		wakeHead();
+	}
+
+	/**
+	 * Returns true if some thread is waiting for a buffer.
+	 */
+	boolean hasWaiters() {
+		return !waitList.isEmpty();
 	}
 
-	private boolean waitingTooLong(long starttime) {
-		return System.currentTimeMillis() - starttime > MAX_TIME;
+	private void wakeHead() {
+		Thread head = waitList.peek();
+		if (head != null)
+			LockSupport.unpark(head);
 	}
 
 	/**
@@ -129,6 +820,9 @@ public class AdvBufferMgr {
 	 */
 	@Override
 	public String toString() {
-		return bufferMgr.toString();
+		String ans = "";
+		for (AdvancedBufferMgr partition : partitions)
+			ans = ans.concat(partition.toString());
+		return ans;
 	}
 }
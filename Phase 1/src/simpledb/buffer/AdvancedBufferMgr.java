@@ -2,22 +2,40 @@ package simpledb.buffer;
 
 import simpledb.file.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * CS4432-Project1
  * Manages the pinning and unpinning of buffers to blocks.
+ * An object of this class may manage a whole buffer pool,
+ * or just one partition of a pool managed by {@link AdvBufferMgr};
+ * in the latter case, frames can move between partitions through
+ * the methods {@link #takeFrame()} and {@link #addFrame(Buffer)}.
  * @author Edward Sciore
  *
  */
 class AdvancedBufferMgr {
-    private Buffer[] bufferpool;
-    private int numAvailable;
-    private LinkedList<Integer> emptyList = new LinkedList<>();
+    private Set<Buffer> bufferpool = new LinkedHashSet<>();
+    private volatile int numAvailable = 0;
+    private LinkedList<Buffer> emptyList = new LinkedList<>();
+    private ReplacementPolicy policy;
+    private DirtyFrames dirtyFrames = new DirtyFrames();
+    private BufferStats stats;
+    private static final long MAX_PREFETCH_WAIT = 1000; // 1 second
 
-    // <block id, buffer index>
-    private HashMap<Block, Integer> buffMap = new HashMap<>();
+    // <block id, buffer>
+    private HashMap<Block, Buffer> buffMap = new HashMap<>();
+
+    // blocks being read ahead; a block is removed if it is loaded meanwhile
+    private HashSet<Block> prefetching = new HashSet<>();
 
     /**
      * CS4432-Project1:
@@ -34,30 +52,64 @@ class AdvancedBufferMgr {
      * @param numbuffs the number of buffer slots to allocate
      */
     AdvancedBufferMgr(int numbuffs) {
-        bufferpool = new Buffer[numbuffs];
-        numAvailable = numbuffs;
+        this(numbuffs, new LRUPolicy());
+    }
+
+    /**
+     * Creates a buffer manager having the specified number
+     * of buffer slots and replacement policy.
+     * @param numbuffs the number of buffer slots to allocate
+     * @param policy the policy that chooses which unpinned buffer to replace
+     */
+    AdvancedBufferMgr(int numbuffs, ReplacementPolicy policy) {
+        this(policy, new BufferStats(null));
+        FrameArena arena = new FrameArena(numbuffs);
         for (int i=0; i<numbuffs; i++) {
 
             // create a new buffer and set the index so it can be easily found later
-            Buffer buff = new Buffer();
+            Buffer buff = new Buffer(dirtyFrames, arena.frame(i));
             buff.setIndex(i);
-
-            // add the buffer to the buffer pool
-            bufferpool[i] = buff;
-
-            // since the pool buffers are empty have the empty list point to all buffers
-            emptyList.add(i);
+            addFrame(buff);
         }
     }
 
+    /**
+     * Creates a buffer manager that has no buffer slots yet.
+     * Slots are added by calling {@link #addFrame(Buffer)}.
+     * @param policy the policy that chooses which unpinned buffer to replace
+     * @param stats the statistics to be updated by this buffer manager
+     */
+    AdvancedBufferMgr(ReplacementPolicy policy, BufferStats stats) {
+        this.policy = policy;
+        this.stats = stats;
+    }
+
     /**
      * Flushes the dirty buffers modified by the specified transaction.
+     * Only the buffers recorded for that transaction are examined,
+     * so the cost depends on how much the transaction wrote
+     * rather than on the size of the pool.
+     * This method applies to the buffers created by this object;
+     * a pool made of partitions flushes each buffer
+     * through {@link #flush(Buffer, int)} instead.
      * @param txnum the transaction's id number
      */
     synchronized void flushAll(int txnum) {
-        for (Buffer buff : bufferpool)
-            if (buff.isModifiedBy(txnum))
-                buff.flush();
+        for (Buffer buff : dirtyFrames.take(txnum))
+            flush(buff, txnum);
+    }
+
+    /**
+     * Writes the buffer's page to disk if the buffer belongs
+     * to this pool and was modified by the specified transaction.
+     * A buffer that has since been replaced is ignored,
+     * because its page was written when it was replaced.
+     * @param buff the buffer
+     * @param txnum the transaction's id number
+     */
+    synchronized void flush(Buffer buff, int txnum) {
+        if (bufferpool.contains(buff) && buff.isModifiedBy(txnum))
+            buff.flush();
     }
 
     /**
@@ -72,22 +124,49 @@ class AdvancedBufferMgr {
      */
     synchronized Buffer pin(Block blk) {
         Buffer buff = findExistingBuffer(blk);
+        if (buff == null && prefetching.contains(blk)) {
+            awaitPrefetch(blk);
+            buff = findExistingBuffer(blk);
+        }
         if (buff == null) {
             buff = chooseUnpinnedBuffer();
             if (buff == null)
                 return null;
-            int index = buff.getIndex();
             buff.assignToBlock(blk);
+            prefetching.remove(blk);
+            stats.miss(blk);
 
             // add an entry to the buffer in the hashmap
-            buffMap.put(blk, index);
-
-            // set the current time for the LRU policy
-            buff.setTime(System.currentTimeMillis());
+            buffMap.put(blk, buff);
+            policy.loaded(buff);
+        }
+        else {
+            stats.hit(blk);
+            countPrefetchHit(buff);
         }
         if (!buff.isPinned())
             numAvailable--;
         buff.pin();
+        policy.pinned(buff);
+        return buff;
+    }
+
+    /**
+     * Pins a buffer to the specified block only if the block
+     * is already in the pool, so that no buffer is replaced.
+     * @param blk a reference to a disk block
+     * @return the pinned buffer, or null if the block is not in the pool
+     */
+    synchronized Buffer pinIfResident(Block blk) {
+        Buffer buff = findExistingBuffer(blk);
+        if (buff == null)
+            return null;
+        stats.hit(blk);
+        countPrefetchHit(buff);
+        if (!buff.isPinned())
+            numAvailable--;
+        buff.pin();
+        policy.pinned(buff);
         return buff;
     }
 
@@ -105,17 +184,188 @@ class AdvancedBufferMgr {
         Buffer buff = chooseUnpinnedBuffer();
         if (buff == null)
             return null;
-        int index = buff.getIndex();
         buff.assignToNew(filename, fmtr);
 
         // add an entry to the buffer in the hashmap
-        buffMap.put(buff.block(), index);
+        buffMap.put(buff.block(), buff);
+        policy.loaded(buff);
 
-        // set the current time for the LRU policy
-        buff.setTime(System.currentTimeMillis());
+        numAvailable--;
+        buff.pin();
+        policy.pinned(buff);
+        return buff;
+    }
 
+    /**
+     * Pins a buffer that was detached from a pool by {@link #takeFrame()}
+     * and has since been assigned to a new block,
+     * making it part of this pool.
+     * If the block was read ahead in the meantime,
+     * the buffer holding that copy is pinned instead,
+     * and the detached buffer becomes an empty slot;
+     * the two copies are the same unless another transaction
+     * has since modified the one in the pool.
+     * @param buff a buffer holding a newly-appended block
+     * @return the pinned buffer
+     */
+    synchronized Buffer pinLoaded(Buffer buff) {
+        prefetching.remove(buff.block());
+        Buffer existing = buffMap.get(buff.block());
+        if (existing != null) {
+            addFrame(buff);
+            buff = existing;
+            countPrefetchHit(buff);
+            if (!buff.isPinned())
+                numAvailable--;
+        }
+        else {
+            bufferpool.add(buff);
+            buffMap.put(buff.block(), buff);
+            policy.loaded(buff);
+        }
+        buff.pin();
+        policy.pinned(buff);
+        return buff;
+    }
+
+    /**
+     * Detaches the specified buffer from the pool so that a
+     * {@link BufferRing} can reuse it, writing its page first if it is dirty.
+     * The buffer is detached only if it still holds the specified block
+     * and is unpinned; otherwise it may have been replaced
+     * and reloaded by someone else, and is left alone.
+     * @param buff a buffer of the ring
+     * @param blk the block that the ring placed in the buffer
+     * @return true if the buffer was detached
+     */
+    synchronized boolean detach(Buffer buff, Block blk) {
+        if (buffMap.get(blk) != buff || buff.isPinned())
+            return false;
+        stats.eviction(buff.isModified());
+        buff.flush();
+        policy.removed(buff);
+        buffMap.remove(blk);
+        bufferpool.remove(buff);
         numAvailable--;
+        return true;
+    }
+
+    /**
+     * Reads the specified block into a buffer detached by
+     * {@link #detach(Buffer, Block)}, making it part of this pool,
+     * and pins it.
+     * If the block was loaded or is being read ahead in the meantime,
+     * the buffer becomes an empty slot and nothing is pinned;
+     * the caller must then pin the block as usual.
+     * @param blk a reference to a disk block
+     * @param buff the detached buffer
+     * @return the pinned buffer, or null if the block was not placed
+     * in the detached buffer
+     */
+    synchronized Buffer pinInto(Block blk, Buffer buff) {
+        if (buffMap.containsKey(blk) || prefetching.contains(blk)) {
+            addFrame(buff);
+            return null;
+        }
+        buff.assignToBlock(blk);
+        stats.miss(blk);
+        bufferpool.add(buff);
+        buffMap.put(blk, buff);
+        policy.loaded(buff);
         buff.pin();
+        policy.pinned(buff);
+        return buff;
+    }
+
+    /**
+     * Returns true if the specified block is in the pool.
+     * @param blk a reference to a disk block
+     * @return true if a buffer is assigned to the block
+     */
+    synchronized boolean isResident(Block blk) {
+        return buffMap.containsKey(blk);
+    }
+
+    /**
+     * Detaches a buffer slot, as {@link #takeFrame()} does,
+     * so that the specified block can be read into it ahead of time.
+     * The block is remembered until {@link #addPrefetched(Buffer)}
+     * is called; if it is loaded by a pin in the meantime,
+     * the prefetched copy may be out of date and will be discarded.
+     * @param blk the block to be read ahead
+     * @return the detached buffer, or null if the block is already
+     * in the pool or every buffer is pinned
+     */
+    synchronized Buffer reserveFrame(Block blk) {
+        if (buffMap.containsKey(blk))
+            return null;
+        Buffer buff = takeFrame();
+        if (buff != null)
+            prefetching.add(blk);
+        return buff;
+    }
+
+    /**
+     * Adds a buffer that was detached by {@link #reserveFrame(Block)}
+     * and then filled by read-ahead to the pool, leaving it unpinned.
+     * If the block was loaded by a pin in the meantime,
+     * the buffer is returned to the pool as an empty slot instead,
+     * and the prefetch is counted as wasted.
+     * @param buff a buffer holding a prefetched block
+     */
+    synchronized void addPrefetched(Buffer buff) {
+        if (!prefetching.remove(buff.block()) || buffMap.containsKey(buff.block())) {
+            buff.setPrefetched(false);
+            stats.wastedPrefetch();
+            addFrame(buff);
+        }
+        else {
+            bufferpool.add(buff);
+            buffMap.put(buff.block(), buff);
+            policy.loaded(buff);
+            policy.unpinned(buff);
+            numAvailable++;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns a buffer detached by {@link #reserveFrame(Block)}
+     * to the pool as an empty slot, after the block could not be read.
+     * @param blk the block that was to be read ahead
+     * @param buff the detached buffer
+     */
+    synchronized void cancelPrefetch(Block blk, Buffer buff) {
+        prefetching.remove(blk);
+        addFrame(buff);
+        notifyAll();
+    }
+
+    /**
+     * Adds an empty buffer slot to the pool.
+     * @param buff a buffer not belonging to any pool
+     */
+    synchronized void addFrame(Buffer buff) {
+        bufferpool.add(buff);
+        emptyList.add(buff);
+        numAvailable++;
+    }
+
+    /**
+     * Removes an unpinned buffer slot from the pool,
+     * writing its page to disk first if it is dirty.
+     * An empty slot is preferred; otherwise the replacement
+     * policy chooses the slot.
+     * @return the detached buffer, or null if every buffer is pinned
+     */
+    synchronized Buffer takeFrame() {
+        Buffer buff = chooseUnpinnedBuffer();
+        if (buff == null)
+            return null;
+        buff.flush();
+        policy.removed(buff);
+        bufferpool.remove(buff);
+        numAvailable--;
         return buff;
     }
 
@@ -125,8 +375,88 @@ class AdvancedBufferMgr {
      */
     synchronized void unpin(Buffer buff) {
         buff.unpin();
-        if (!buff.isPinned())
+        if (!buff.isPinned()) {
             numAvailable++;
+            policy.unpinned(buff);
+        }
+    }
+
+    /**
+     * Removes the unpinned blocks of the specified file from the pool,
+     * writing their pages first if they are dirty,
+     * or discarding their changes if the file is being deleted.
+     * Their buffers become empty slots.
+     * @param filename the name of the file
+     * @param discard true if dirty pages are not written
+     * @return false if some block of the file is pinned
+     */
+    synchronized boolean dropFile(String filename, boolean discard) {
+        boolean dropped = true;
+        Iterator<Map.Entry<Block, Buffer>> iter = buffMap.entrySet().iterator();
+        while (iter.hasNext()) {
+            Buffer buff = iter.next().getValue();
+            if (!buff.block().fileName().equals(filename))
+                continue;
+            if (buff.isPinned()) {
+                dropped = false;
+                continue;
+            }
+            if (discard)
+                buff.discard();
+            else
+                buff.flush();
+            buff.setPrefetched(false);
+            policy.removed(buff);
+            iter.remove();
+            emptyList.add(buff);
+        }
+        return dropped;
+    }
+
+    /**
+     * Writes the dirty pages among the buffers that the policy
+     * would replace next, so that replacing them later needs no write.
+     * At most <tt>batch</tt> pages are written,
+     * so that the partition lock is not held for long.
+     * @param window how many of the next victims to examine
+     * @param batch the maximum number of pages to write
+     * @return the number of pages written
+     */
+    synchronized int cleanAhead(int window, int batch) {
+        List<Buffer> dirty = new ArrayList<>();
+        for (Buffer buff : policy.upcomingVictims(window)) {
+            if (dirty.size() == batch)
+                break;
+            if (buff.isModified())
+                dirty.add(buff);
+        }
+        Buffer.flushAll(dirty);
+        return dirty.size();
+    }
+
+    /**
+     * Returns the blocks in the pool, most recently used first.
+     * Pinned blocks come first, followed by the unpinned blocks
+     * in the reverse of the order in which the policy would replace them.
+     * @return the resident blocks
+     */
+    synchronized List<Block> residentBlocks() {
+        List<Block> result = new ArrayList<>();
+        for (Buffer buff : bufferpool)
+            if (buff.isPinned())
+                result.add(buff.block());
+        List<Buffer> victims = policy.upcomingVictims(bufferpool.size());
+        for (int i=victims.size()-1; i>=0; i--)
+            result.add(victims.get(i).block());
+        return result;
+    }
+
+    /**
+     * Returns the number of buffer slots in the pool.
+     * @return the number of buffer slots
+     */
+    synchronized int size() {
+        return bufferpool.size();
     }
 
     /**
@@ -145,10 +475,7 @@ class AdvancedBufferMgr {
      */
     private Buffer findExistingBuffer(Block blk) {
         // check the hashmap if the block exists in the buffer pool
-        if(buffMap.containsKey(blk)) {
-            return bufferpool[buffMap.get(blk)];
-        }
-        return null;
+        return buffMap.get(blk);
     }
 
     /**
@@ -164,43 +491,58 @@ class AdvancedBufferMgr {
         }
 
         // otherwise find a buffer for replacement
-        Buffer lruBuff = leastRecentlyUsed();
-        if (lruBuff != null) {
-            buffMap.remove(lruBuff.block());
-            return lruBuff;
+        if (numAvailable == 0)
+            return null;
+        Buffer victim = policy.chooseVictim();
+        if (victim != null) {
+            stats.eviction(victim.isModified());
+            if (victim.isPrefetched()) {
+                victim.setPrefetched(false);
+                stats.wastedPrefetch();
+            }
+            buffMap.remove(victim.block());
+            return victim;
         }
         return null;
     }
 
     /**
-	 * CS4432-Project1:
-     * Returns an empty buffer in constant time using a linked list
-     * @return an empty buffer
+     * Waits for the read-ahead of the specified block to finish,
+     * instead of reading the block a second time.
+     * The partition lock is released while waiting.
+     * The wait is bounded, in case the read-ahead never finishes.
      */
-    private Buffer findEmptyBuffer() {
-        if (emptyList.size() > 0) {
-            Buffer buff = bufferpool[emptyList.getFirst()];
-            emptyList.remove(emptyList.getFirst());
-            return buff;
+    private void awaitPrefetch(Block blk) {
+        long deadline = System.currentTimeMillis() + MAX_PREFETCH_WAIT;
+        try {
+            while (prefetching.contains(blk)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return;
+                wait(remaining);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void countPrefetchHit(Buffer buff) {
+        if (buff.isPrefetched()) {
+            buff.setPrefetched(false);
+            stats.prefetchHit();
         }
-        else return null;
     }
 
     /**
 	 * CS4432-Project1:
-     * function to calculate least recently used buffer in pool
-     * @return lru buffer
-     */
-    private Buffer leastRecentlyUsed() {
-        long lruTime = bufferpool[0].getTime();
-        Buffer lruBuff = bufferpool[0];
-        for (Buffer buff: bufferpool) {
-            if (buff.getTime() < lruTime && !buff.isPinned()) {
-                lruTime = buff.getTime();
-                lruBuff = buff;
-            }
-        }
-        return lruBuff;
+     * Returns an empty buffer in constant time using a linked list
+     * @return an empty buffer
+     */
+    private Buffer findEmptyBuffer() {
+        if (emptyList.size() > 0)
+            return emptyList.removeFirst();
+        else return null;
     }
 
     /**
@@ -209,12 +551,10 @@ class AdvancedBufferMgr {
      * @return string concatenation
      */
     @Override
-    public String toString() {
+    public synchronized String toString() {
         String ans = "";
-        int i = 0;
         for (Buffer buff:bufferpool) {
-            ans = ans.concat("Item " + i + " in Bufferpool: \n" + buff.toString() + "\n");
-            i++;
+            ans = ans.concat("Item " + buff.getIndex() + " in Bufferpool: \n" + buff.toString() + "\n");
         }
         return ans;
     }
@@ -10,6 +10,7 @@ import simpledb.file.*;
 class BasicBufferMgr {
     private Buffer[] bufferpool;
     private int numAvailable;
+    private DirtyFrames dirtyFrames = new DirtyFrames();
 
     /**
      * Creates a buffer manager having the specified number
@@ -28,15 +29,16 @@ class BasicBufferMgr {
         bufferpool = new Buffer[numbuffs];
         numAvailable = numbuffs;
         for (int i=0; i<numbuffs; i++)
-            bufferpool[i] = new Buffer();
+            bufferpool[i] = new Buffer(dirtyFrames);
     }
 
     /**
      * Flushes the dirty buffers modified by the specified transaction.
+     * Only the buffers recorded for that transaction are examined.
      * @param txnum the transaction's id number
      */
     synchronized void flushAll(int txnum) {
-        for (Buffer buff : bufferpool)
+        for (Buffer buff : dirtyFrames.take(txnum))
             if (buff.isModifiedBy(txnum))
                 buff.flush();
     }
@@ -2,6 +2,8 @@ package simpledb.buffer;
 
 import simpledb.server.SimpleDB;
 import simpledb.file.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * An individual buffer.
@@ -14,13 +16,17 @@ import simpledb.file.*;
  * @author Edward Sciore
  */
 public class Buffer {
-   private Page contents = new Page();
+   private Page contents;
    private Block blk = null;
    private int index = -1;
    private int pins = 0;
    private int modifiedBy = -1;  // negative means not modified
    private int logSequenceNumber = -1; // negative means no corresponding log record
    private long time = -1;
+   private boolean referenced = false;
+   private int clockSlot = -1;
+   private boolean prefetched = false;
+   private DirtyFrames dirtyFrames = null;
 
    /**
     * Creates a new buffer, wrapping a new 
@@ -36,7 +42,31 @@ public class Buffer {
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
     */
-   public Buffer() {}
+   public Buffer() {
+      this(null, new Page());
+   }
+
+   /**
+    * Creates a new buffer that records its modifications
+    * in the specified table,
+    * so that its buffer manager can find the buffers
+    * modified by a transaction.
+    * @param dirtyFrames the buffer manager's table of modified buffers
+    */
+   Buffer(DirtyFrames dirtyFrames) {
+      this(dirtyFrames, new Page());
+   }
+
+   /**
+    * Creates a new buffer that wraps the specified page
+    * and records its modifications in the specified table.
+    * @param dirtyFrames the buffer manager's table of modified buffers
+    * @param contents the page, such as a frame of a {@link FrameArena}
+    */
+   Buffer(DirtyFrames dirtyFrames, Page contents) {
+      this.dirtyFrames = dirtyFrames;
+      this.contents = contents;
+   }
    
    /**
     * Returns the integer value at the specified offset of the
@@ -77,7 +107,7 @@ public class Buffer {
     * @param lsn the LSN of the corresponding log record
     */
    public void setInt(int offset, int val, int txnum, int lsn) {
-      modifiedBy = txnum;
+      setModifiedBy(txnum);
       if (lsn >= 0)
 	      logSequenceNumber = lsn;
       contents.setInt(offset, val);
@@ -98,7 +128,7 @@ public class Buffer {
     * @param lsn the LSN of the corresponding log record
     */
    public void setString(int offset, String val, int txnum, int lsn) {
-      modifiedBy = txnum;
+      setModifiedBy(txnum);
       if (lsn >= 0)
 	      logSequenceNumber = lsn;
       contents.setString(offset, val);
@@ -124,8 +154,62 @@ public class Buffer {
       if (modifiedBy >= 0) {
          SimpleDB.logMgr().flush(logSequenceNumber);
          contents.write(blk);
-         modifiedBy = -1;
+         setModifiedBy(-1);
+      }
+   }
+
+   /**
+    * Writes the pages of the specified buffers that are dirty,
+    * forcing the log once up to the highest of their LSNs.
+    * The writes are started together and then waited for,
+    * so that the I/O scheduler can combine those of adjacent blocks.
+    * The buffers must not be pinned.
+    * @param buffs the buffers
+    */
+   static void flushAll(List<Buffer> buffs) {
+      List<Buffer> dirty = new ArrayList<Buffer>();
+      int lsn = -1;
+      for (Buffer buff : buffs)
+         if (buff.modifiedBy >= 0) {
+            dirty.add(buff);
+            lsn = Math.max(lsn, buff.logSequenceNumber);
+         }
+      if (dirty.isEmpty())
+         return;
+      SimpleDB.logMgr().flush(lsn);
+      List<IORequest> writes = new ArrayList<IORequest>();
+      for (Buffer buff : dirty)
+         writes.add(buff.contents.writeAsync(buff.blk));
+      for (IORequest w : writes)
+         w.await();
+      for (Buffer buff : dirty)
+         buff.setModifiedBy(-1);
+   }
+
+   /**
+    * Forgets the changes to the page without writing them,
+    * because its block's file is being deleted.
+    */
+   void discard() {
+      setModifiedBy(-1);
+      prefetched = false;
+   }
+
+   /**
+    * Records the transaction that last modified the buffer,
+    * keeping the buffer manager's table of modified buffers up to date.
+    * @param txnum the id of the transaction, or -1 if the page is clean
+    */
+   private void setModifiedBy(int txnum) {
+      if (txnum == modifiedBy)
+         return;
+      if (dirtyFrames != null) {
+         if (modifiedBy >= 0)
+            dirtyFrames.remove(this, modifiedBy);
+         if (txnum >= 0)
+            dirtyFrames.add(this, txnum);
       }
+      modifiedBy = txnum;
    }
 
    /**
@@ -151,6 +235,14 @@ public class Buffer {
       return pins > 0;
    }
 
+   /**
+    * Returns true if the buffer is dirty.
+    * @return true if the page has changes not yet written to disk
+    */
+   boolean isModified() {
+      return modifiedBy >= 0;
+   }
+
    /**
     * Returns true if the buffer is dirty
     * due to a modification by the specified transaction.
@@ -194,6 +286,50 @@ public class Buffer {
       pins = 0;
    }
 
+   /**
+    * Starts reading consecutive blocks into the specified buffers,
+    * starting at the specified block, using a single read request.
+    * The buffers must be clean and must not belong to any pool.
+    * Once the request has completed, the buffers are assigned
+    * to the blocks by {@link #assignToBlocks(Block, Buffer[])}.
+    * @param first a reference to the first block
+    * @param frames the buffers to read into, in block order
+    * @return the read request, which must be waited for
+    */
+   static IORequest readAsync(Block first, Buffer[] frames) {
+      Page[] pages = new Page[frames.length];
+      for (int i=0; i<frames.length; i++)
+         pages[i] = frames[i].contents;
+      return Page.readAsync(first, pages);
+   }
+
+   /**
+    * Assigns the buffers to the consecutive blocks
+    * that were read into them, starting at the specified block.
+    * Each buffer is marked as prefetched until it is first pinned.
+    * @param first a reference to the first block
+    * @param frames the buffers that were read into, in block order
+    */
+   static void assignToBlocks(Block first, Buffer[] frames) {
+      for (int i=0; i<frames.length; i++) {
+         frames[i].blk = new Block(first.fileName(), first.number() + i);
+         frames[i].pins = 0;
+         frames[i].prefetched = true;
+      }
+   }
+
+   /**
+    * Returns true if the buffer was filled by read-ahead
+    * and has not been pinned since.
+    */
+   boolean isPrefetched() {
+      return prefetched;
+   }
+
+   void setPrefetched(boolean prefetched) {
+      this.prefetched = prefetched;
+   }
+
    /**
 	* CS4432-Project1
     * Getter and setter for index
@@ -218,6 +354,32 @@ public class Buffer {
       this.time = time;
    }
 
+   /**
+    * Returns the reference bit used by the clock replacement policy.
+    * The bit is set whenever the buffer is pinned, and cleared
+    * when the clock hand passes over the unpinned buffer.
+    * @return true if the buffer was referenced since the hand last passed
+    */
+   boolean isReferenced() {
+      return referenced;
+   }
+
+   void setReferenced(boolean referenced) {
+      this.referenced = referenced;
+   }
+
+   /**
+    * Returns the buffer's position in the ring of the clock replacement policy.
+    * @return the position, or -1 if the buffer is not in a ring
+    */
+   int clockSlot() {
+      return clockSlot;
+   }
+
+   void setClockSlot(int clockSlot) {
+      this.clockSlot = clockSlot;
+   }
+
    /**
 	* CS4432-Project1
     * print out info for a given buffer. Assuming index in bufferpool is the bufferID. Also returns
@@ -0,0 +1,67 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+
+/**
+ * A small set of buffers that a bulk operation, such as a scan
+ * of a large table or the writing of a temporary table,
+ * reuses in turn instead of replacing buffers throughout the pool.
+ * Each block that the operation reads or appends is placed in
+ * the ring's oldest buffer, provided that buffer still holds
+ * the block the ring put there and nobody has it pinned;
+ * otherwise the block is pinned as usual and its buffer joins the ring.
+ * Blocks that are already in the pool are pinned where they are,
+ * so the operation can still use pages that others keep in memory.
+ * <p>
+ * A ring belongs to a single scan and is not thread-safe.
+ * @see AdvBufferMgr#newRing()
+ */
+public class BufferRing {
+   private Buffer[] buffers;
+   private Block[] blocks;
+   private int next = 0;
+
+   /**
+    * Creates an empty ring of the specified size.
+    * @param size the number of buffers in the ring
+    */
+   BufferRing(int size) {
+      buffers = new Buffer[size];
+      blocks = new Block[size];
+   }
+
+   /**
+    * Returns the number of buffers in the ring.
+    * @return the size of the ring
+    */
+   public int size() {
+      return buffers.length;
+   }
+
+   /**
+    * Returns the buffer that the ring will reuse next.
+    * @return the oldest buffer, or null if the ring is not yet full
+    */
+   Buffer oldest() {
+      return buffers[next];
+   }
+
+   /**
+    * Returns the block that the ring placed in its oldest buffer.
+    * @return the oldest buffer's block, or null if the ring is not yet full
+    */
+   Block oldestBlock() {
+      return blocks[next];
+   }
+
+   /**
+    * Replaces the oldest buffer of the ring by the specified one,
+    * which becomes the newest.
+    * @param buff a buffer pinned by the ring's operation
+    */
+   void replace(Buffer buff) {
+      buffers[next] = buff;
+      blocks[next] = buff.block();
+      next = (next + 1) % buffers.length;
+   }
+}
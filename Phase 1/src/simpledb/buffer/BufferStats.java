@@ -0,0 +1,314 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics about the use of a buffer pool.
+ * The counters are updated without locking,
+ * so that collecting them does not slow down the pool,
+ * and they can be read at any time.
+ * Hits and misses are also counted per file;
+ * all temporary tables share the file name "temp".
+ * <p>
+ * The time that a thread waits in {@link AdvBufferMgr#pin(Block) pin}
+ * or {@link AdvBufferMgr#pinNew(String, PageFormatter) pinNew}
+ * for a buffer to become available is recorded in a histogram;
+ * bucket <i>i</i> counts the waits shorter than
+ * {@link #waitBucketLimit(int) waitBucketLimit(i)} milliseconds,
+ * and the last bucket counts all longer waits.
+ */
+public class BufferStats {
+   /**
+    * The number of buckets in the pin-wait histogram.
+    */
+   public static final int WAIT_BUCKETS = 16;
+
+   private AdvBufferMgr bufferMgr;
+   private LongAdder hits = new LongAdder();
+   private LongAdder misses = new LongAdder();
+   private LongAdder evictions = new LongAdder();
+   private LongAdder dirtyEvictions = new LongAdder();
+   private LongAdder pagesCleaned = new LongAdder();
+   private LongAdder cleanerFailures = new LongAdder();
+   private LongAdder prefetchedBlocks = new LongAdder();
+   private LongAdder prefetchHits = new LongAdder();
+   private LongAdder wastedPrefetches = new LongAdder();
+   private LongAdder[] pinWaits = new LongAdder[WAIT_BUCKETS];
+   private volatile double cleanRate = 0;
+   private ConcurrentHashMap<String,FileStats> files = new ConcurrentHashMap<String,FileStats>();
+
+   private static class FileStats {
+      LongAdder hits = new LongAdder();
+      LongAdder misses = new LongAdder();
+   }
+
+   /**
+    * Creates the statistics for the specified buffer manager,
+    * which provides the current numbers of pinned and available buffers.
+    * @param bufferMgr the buffer manager, or null if there is none
+    */
+   BufferStats(AdvBufferMgr bufferMgr) {
+      this.bufferMgr = bufferMgr;
+      for (int i=0; i<WAIT_BUCKETS; i++)
+         pinWaits[i] = new LongAdder();
+   }
+
+   /**
+    * Returns the number of pins that found their block in the pool.
+    * @return the number of hits
+    */
+   public long hits() {
+      return hits.sum();
+   }
+
+   /**
+    * Returns the number of pins that had to read their block from disk.
+    * @return the number of misses
+    */
+   public long misses() {
+      return misses.sum();
+   }
+
+   /**
+    * Returns the fraction of pins that found their block in the pool.
+    * @return the hit ratio, or 0 if no block has been pinned
+    */
+   public double hitRatio() {
+      long h = hits(), total = h + misses();
+      return total == 0 ? 0 : (double) h / total;
+   }
+
+   /**
+    * Returns the number of hits on blocks of the specified file.
+    * @param filename the name of the file
+    * @return the number of hits
+    */
+   public long hits(String filename) {
+      FileStats fs = files.get(key(filename));
+      return fs == null ? 0 : fs.hits.sum();
+   }
+
+   /**
+    * Returns the number of misses on blocks of the specified file.
+    * @param filename the name of the file
+    * @return the number of misses
+    */
+   public long misses(String filename) {
+      FileStats fs = files.get(key(filename));
+      return fs == null ? 0 : fs.misses.sum();
+   }
+
+   /**
+    * Returns the names of the files whose blocks have been pinned.
+    * @return the file names
+    */
+   public Set<String> files() {
+      return new TreeSet<String>(files.keySet());
+   }
+
+   /**
+    * Returns the number of times a buffer was replaced.
+    * @return the number of evictions
+    */
+   public long evictions() {
+      return evictions.sum();
+   }
+
+   /**
+    * Returns the number of times a replaced buffer was dirty,
+    * so that the pin had to write the old page before reading its own.
+    * @return the number of dirty evictions
+    */
+   public long dirtyEvictions() {
+      return dirtyEvictions.sum();
+   }
+
+   /**
+    * Returns the number of pages written by the page cleaner.
+    * @return the number of pages cleaned
+    */
+   public long pagesCleaned() {
+      return pagesCleaned.sum();
+   }
+
+   /**
+    * Returns the number of pages the page cleaner wrote
+    * per second over the last second or so.
+    * @return the recent cleaning rate
+    */
+   public double pagesCleanedPerSecond() {
+      return cleanRate;
+   }
+
+   /**
+    * Returns the number of rounds of the page cleaner
+    * that ended because a page could not be written.
+    * @return the number of failed cleaning rounds
+    */
+   public long cleanerFailures() {
+      return cleanerFailures.sum();
+   }
+
+   /**
+    * Returns the number of blocks read ahead by the prefetcher.
+    * @return the number of prefetched blocks
+    */
+   public long prefetchedBlocks() {
+      return prefetchedBlocks.sum();
+   }
+
+   /**
+    * Returns the number of prefetched blocks that were pinned
+    * before their buffers were replaced.
+    * @return the number of prefetch hits
+    */
+   public long prefetchHits() {
+      return prefetchHits.sum();
+   }
+
+   /**
+    * Returns the number of prefetched blocks that were never pinned,
+    * because their buffers were replaced first
+    * or the block was read by a pin in the meantime.
+    * @return the number of wasted prefetches
+    */
+   public long wastedPrefetches() {
+      return wastedPrefetches.sum();
+   }
+
+   /**
+    * Returns the number of buffers in the pool.
+    * @return the number of buffers
+    */
+   public int totalFrames() {
+      return bufferMgr == null ? 0 : bufferMgr.size();
+   }
+
+   /**
+    * Returns the number of unpinned buffers in the pool.
+    * @return the number of available buffers
+    */
+   public int availableFrames() {
+      return bufferMgr == null ? 0 : bufferMgr.available();
+   }
+
+   /**
+    * Returns the number of pinned buffers in the pool.
+    * @return the number of pinned buffers
+    */
+   public int pinnedFrames() {
+      return Math.max(0, totalFrames() - availableFrames());
+   }
+
+   /**
+    * Returns the pin-wait histogram.
+    * @return the number of waits in each bucket
+    */
+   public long[] pinWaits() {
+      long[] result = new long[WAIT_BUCKETS];
+      for (int i=0; i<WAIT_BUCKETS; i++)
+         result[i] = pinWaits[i].sum();
+      return result;
+   }
+
+   /**
+    * Returns the upper limit of a bucket of the pin-wait histogram.
+    * @param bucket the index of the bucket
+    * @return the limit in milliseconds, or Long.MAX_VALUE for the last bucket
+    */
+   public static long waitBucketLimit(int bucket) {
+      return bucket == WAIT_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+   }
+
+   public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("hits=%d misses=%d hitRatio=%.3f evictions=%d dirtyEvictions=%d%n",
+                              hits(), misses(), hitRatio(), evictions(), dirtyEvictions()));
+      sb.append(String.format("frames=%d pinned=%d available=%d%n",
+                              totalFrames(), pinnedFrames(), availableFrames()));
+      sb.append(String.format("pagesCleaned=%d (%.1f/s) cleanerFailures=%d prefetched=%d prefetchHits=%d wastedPrefetches=%d%n",
+                              pagesCleaned(), pagesCleanedPerSecond(), cleanerFailures(),
+                              prefetchedBlocks(), prefetchHits(), wastedPrefetches()));
+      sb.append("pinWaits(ms):");
+      long[] waits = pinWaits();
+      for (int i=0; i<WAIT_BUCKETS; i++)
+         if (waits[i] > 0)
+            sb.append(i == WAIT_BUCKETS - 1 ? " >=" + (1L << (i-1)) : " <" + waitBucketLimit(i))
+              .append("=").append(waits[i]);
+      sb.append(String.format("%n"));
+      for (String filename : files())
+         sb.append(String.format("  %s hits=%d misses=%d%n",
+                                 filename, hits(filename), misses(filename)));
+      return sb.toString();
+   }
+
+   void hit(Block blk) {
+      hits.increment();
+      fileStats(blk).hits.increment();
+   }
+
+   void miss(Block blk) {
+      misses.increment();
+      fileStats(blk).misses.increment();
+   }
+
+   void eviction(boolean dirty) {
+      evictions.increment();
+      if (dirty)
+         dirtyEvictions.increment();
+   }
+
+   void cleaned(int count) {
+      pagesCleaned.add(count);
+   }
+
+   void cleanerFailed() {
+      cleanerFailures.increment();
+   }
+
+   void setCleanRate(double rate) {
+      cleanRate = rate;
+   }
+
+   void prefetched(int count) {
+      prefetchedBlocks.add(count);
+   }
+
+   void prefetchHit() {
+      prefetchHits.increment();
+   }
+
+   void wastedPrefetch() {
+      wastedPrefetches.increment();
+   }
+
+   /**
+    * Records the time that a thread waited for a buffer.
+    * @param millis the length of the wait in milliseconds
+    */
+   void pinWait(long millis) {
+      int bucket = 0;
+      while (bucket < WAIT_BUCKETS - 1 && millis >= waitBucketLimit(bucket))
+         bucket++;
+      pinWaits[bucket].increment();
+   }
+
+   private FileStats fileStats(Block blk) {
+      String filename = key(blk.fileName());
+      FileStats fs = files.get(filename);
+      if (fs == null) {
+         fs = new FileStats();
+         FileStats existing = files.putIfAbsent(filename, fs);
+         if (existing != null)
+            fs = existing;
+      }
+      return fs;
+   }
+
+   private static String key(String filename) {
+      return filename.startsWith("temp") ? "temp" : filename;
+   }
+}
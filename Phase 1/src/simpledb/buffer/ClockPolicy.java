@@ -0,0 +1,112 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The clock (second-chance) replacement policy.
+ * Each buffer has a reference bit that is set when it is pinned.
+ * A hand sweeps the buffers in a fixed circular order,
+ * clearing the bit of each unpinned buffer it passes;
+ * the first unpinned buffer whose bit is already clear is chosen.
+ * Two full sweeps are enough to find a victim if one exists,
+ * and on average the hand moves only a few frames per call.
+ * <p>
+ * Each buffer keeps its position in the ring, so a buffer is removed
+ * in constant time by leaving an empty slot, which the hand skips
+ * and the next loaded buffer fills. The ring is compacted
+ * when more than half of its slots are empty.
+ */
+class ClockPolicy implements ReplacementPolicy {
+   private List<Buffer> ring = new ArrayList<Buffer>();
+   private Deque<Integer> emptySlots = new ArrayDeque<Integer>();
+   private int hand = 0;
+
+   public void loaded(Buffer buff) {
+      if (contains(buff))
+         return;
+      if (emptySlots.isEmpty()) {
+         buff.setClockSlot(ring.size());
+         ring.add(buff);
+      }
+      else {
+         int slot = emptySlots.pop();
+         buff.setClockSlot(slot);
+         ring.set(slot, buff);
+      }
+   }
+
+   public void pinned(Buffer buff) {
+      buff.setReferenced(true);
+   }
+
+   public void unpinned(Buffer buff) {}
+
+   public Buffer chooseVictim() {
+      for (int i = 0; i < 2 * ring.size(); i++) {
+         Buffer buff = ring.get(hand);
+         hand = (hand + 1) % ring.size();
+         if (buff == null || buff.isPinned())
+            continue;
+         if (buff.isReferenced())
+            buff.setReferenced(false);
+         else
+            return buff;
+      }
+      return null;
+   }
+
+   /**
+    * Returns the unpinned buffers in the order the hand reaches them,
+    * those whose reference bit is clear coming first,
+    * since the hand will skip the others on its first pass.
+    */
+   public List<Buffer> upcomingVictims(int max) {
+      List<Buffer> result = new ArrayList<Buffer>();
+      for (int pass = 0; pass < 2; pass++) {
+         boolean secondChance = (pass == 1);
+         for (int i = 0; i < ring.size() && result.size() < max; i++) {
+            Buffer buff = ring.get((hand + i) % ring.size());
+            if (buff != null && !buff.isPinned() && buff.isReferenced() == secondChance)
+               result.add(buff);
+         }
+      }
+      return result;
+   }
+
+   public void removed(Buffer buff) {
+      if (!contains(buff))
+         return;
+      int slot = buff.clockSlot();
+      ring.set(slot, null);
+      buff.setClockSlot(-1);
+      emptySlots.push(slot);
+      if (emptySlots.size() > ring.size() / 2)
+         compact();
+   }
+
+   private boolean contains(Buffer buff) {
+      int slot = buff.clockSlot();
+      return slot >= 0 && slot < ring.size() && ring.get(slot) == buff;
+   }
+
+   /**
+    * Removes the empty slots, keeping the buffers in ring order
+    * and the hand on the buffer it would reach next.
+    */
+   private void compact() {
+      List<Buffer> newring = new ArrayList<Buffer>();
+      int newhand = 0;
+      for (int i = 0; i < ring.size(); i++) {
+         if (i == hand)
+            newhand = newring.size();
+         Buffer buff = ring.get(i);
+         if (buff != null) {
+            buff.setClockSlot(newring.size());
+            newring.add(buff);
+         }
+      }
+      ring = newring;
+      emptySlots.clear();
+      hand = (newhand < ring.size()) ? newhand : 0;
+   }
+}
@@ -0,0 +1,59 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the buffers that each transaction has modified
+ * but not yet written to disk.
+ * The table is maintained by the buffers themselves:
+ * a buffer is added to a transaction's set when the transaction
+ * modifies it, and removed when its page is written.
+ * A buffer manager can therefore flush a transaction's pages
+ * without examining every buffer in the pool.
+ */
+class DirtyFrames {
+   private ConcurrentHashMap<Integer,Set<Buffer>> frames = new ConcurrentHashMap<Integer,Set<Buffer>>();
+
+   /**
+    * Records that the specified transaction modified the buffer.
+    * @param buff the modified buffer
+    * @param txnum the id of the modifying transaction
+    */
+   void add(Buffer buff, int txnum) {
+      Set<Buffer> set = frames.get(txnum);
+      if (set == null) {
+         set = Collections.newSetFromMap(new ConcurrentHashMap<Buffer,Boolean>());
+         Set<Buffer> existing = frames.putIfAbsent(txnum, set);
+         if (existing != null)
+            set = existing;
+      }
+      set.add(buff);
+   }
+
+   /**
+    * Records that the buffer is no longer dirty on behalf of
+    * the specified transaction.
+    * @param buff the buffer
+    * @param txnum the id of the transaction that had modified it
+    */
+   void remove(Buffer buff, int txnum) {
+      Set<Buffer> set = frames.get(txnum);
+      if (set != null)
+         set.remove(buff);
+   }
+
+   /**
+    * Removes and returns the buffers modified by the specified transaction.
+    * Buffers that the transaction modifies afterwards
+    * are recorded in a new set.
+    * @param txnum the id of the transaction
+    * @return the buffers the transaction has modified
+    */
+   Collection<Buffer> take(int txnum) {
+      Set<Buffer> set = frames.remove(txnum);
+      if (set == null)
+         return Collections.emptySet();
+      return set;
+   }
+}
@@ -0,0 +1,60 @@
+package simpledb.buffer;
+
+import simpledb.file.Page;
+import simpledb.server.SimpleDB;
+import java.nio.ByteBuffer;
+
+/**
+ * A contiguous region of off-heap memory that holds the pages
+ * of a buffer pool.
+ * Instead of allocating a small direct bytebuffer for each page,
+ * the arena allocates a few large ones and hands out
+ * block-sized slices of them.
+ * A single direct bytebuffer cannot exceed 2GB, so a very large
+ * arena is made of several chunks, each holding as many
+ * frames as fit, less one to leave room for aligning the chunk
+ * when the database uses direct I/O.
+ */
+class FrameArena {
+   private ByteBuffer[] chunks;
+   private int numframes;
+   private int blocksize = Page.blockSize();
+   private int framesPerChunk = Integer.MAX_VALUE / blocksize - 1;
+
+   /**
+    * Allocates an arena for the specified number of frames.
+    * @param numframes the number of frames
+    */
+   FrameArena(int numframes) {
+      this.numframes = numframes;
+      int numchunks = (numframes + framesPerChunk - 1) / framesPerChunk;
+      chunks = new ByteBuffer[numchunks];
+      for (int i=0; i<numchunks; i++) {
+         int frames = Math.min(framesPerChunk, numframes - i * framesPerChunk);
+         chunks[i] = SimpleDB.fileMgr().allocateBuffer(frames * blocksize);
+      }
+   }
+
+   /**
+    * Returns a page whose contents are held in the specified frame.
+    * @param i the index of the frame, starting from 0
+    * @return a page backed by the frame
+    */
+   Page frame(int i) {
+      if (i < 0 || i >= numframes)
+         throw new IndexOutOfBoundsException("frame " + i);
+      ByteBuffer chunk = chunks[i / framesPerChunk].duplicate();
+      int offset = (i % framesPerChunk) * blocksize;
+      chunk.position(offset);
+      chunk.limit(offset + blocksize);
+      return new Page(chunk.slice());
+   }
+
+   /**
+    * Returns the number of frames in the arena.
+    * @return the number of frames
+    */
+   int size() {
+      return numframes;
+   }
+}
@@ -0,0 +1,91 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The LRU-K replacement policy (here with K=2).
+ * The policy remembers the times of the last K pins of each block,
+ * and chooses the unpinned buffer whose K-th most recent pin is oldest.
+ * A block that has been pinned fewer than K times is treated as
+ * infinitely old, so pages touched once by a sequential scan are
+ * replaced before pages that are repeatedly re-referenced,
+ * such as catalog pages and index roots.
+ * Ties among such blocks are broken by plain LRU.
+ * <p>
+ * The reference history of a replaced block is retained for a while,
+ * so that a block which is re-read soon after being replaced
+ * is not mistaken for a one-time access.
+ */
+class LRUKPolicy implements ReplacementPolicy {
+   private static final int K = 2;
+   private static final int MIN_RETAINED = 64;
+
+   private long clock = 0;
+   private Map<Buffer,long[]> resident = new HashMap<Buffer,long[]>();
+   private TreeSet<Buffer> unpinned = new TreeSet<Buffer>(new Comparator<Buffer>() {
+      public int compare(Buffer b1, Buffer b2) {
+         long[] h1 = resident.get(b1);
+         long[] h2 = resident.get(b2);
+         if (h1[K-1] != h2[K-1])
+            return h1[K-1] < h2[K-1] ? -1 : 1;
+         if (h1[0] != h2[0])
+            return h1[0] < h2[0] ? -1 : 1;
+         return Integer.compare(b1.getIndex(), b2.getIndex());
+      }
+   });
+   private LinkedHashMap<Block,long[]> retained = new LinkedHashMap<Block,long[]>() {
+      protected boolean removeEldestEntry(Map.Entry<Block,long[]> eldest) {
+         return size() > Math.max(MIN_RETAINED, resident.size());
+      }
+   };
+
+   /**
+    * Restores the retained history of the buffer's block, if any.
+    * The history array holds the pin times, most recent first;
+    * a value of -1 means "never".
+    */
+   public void loaded(Buffer buff) {
+      long[] hist = retained.remove(buff.block());
+      if (hist == null) {
+         hist = new long[K];
+         Arrays.fill(hist, -1);
+      }
+      resident.put(buff, hist);
+   }
+
+   public void pinned(Buffer buff) {
+      unpinned.remove(buff);
+      long[] hist = resident.get(buff);
+      System.arraycopy(hist, 0, hist, 1, K-1);
+      hist[0] = clock++;
+   }
+
+   public void unpinned(Buffer buff) {
+      unpinned.add(buff);
+   }
+
+   public Buffer chooseVictim() {
+      Buffer victim = unpinned.pollFirst();
+      if (victim != null)
+         retained.put(victim.block(), resident.remove(victim));
+      return victim;
+   }
+
+   public List<Buffer> upcomingVictims(int max) {
+      List<Buffer> result = new ArrayList<Buffer>();
+      for (Buffer buff : unpinned) {
+         if (result.size() == max)
+            break;
+         result.add(buff);
+      }
+      return result;
+   }
+
+   public void removed(Buffer buff) {
+      if (resident.containsKey(buff)) {
+         unpinned.remove(buff);
+         retained.put(buff.block(), resident.remove(buff));
+      }
+   }
+}
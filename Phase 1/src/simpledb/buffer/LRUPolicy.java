@@ -0,0 +1,45 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The least-recently-used replacement policy.
+ * Unpinned buffers are kept in the order in which they were unpinned,
+ * so the victim is always at the head of the list.
+ */
+class LRUPolicy implements ReplacementPolicy {
+   private LinkedHashSet<Buffer> unpinned = new LinkedHashSet<Buffer>();
+
+   public void loaded(Buffer buff) {}
+
+   public void pinned(Buffer buff) {
+      unpinned.remove(buff);
+   }
+
+   public void unpinned(Buffer buff) {
+      unpinned.add(buff);
+   }
+
+   public Buffer chooseVictim() {
+      Iterator<Buffer> iter = unpinned.iterator();
+      if (!iter.hasNext())
+         return null;
+      Buffer victim = iter.next();
+      iter.remove();
+      return victim;
+   }
+
+   public List<Buffer> upcomingVictims(int max) {
+      List<Buffer> result = new ArrayList<Buffer>();
+      for (Buffer buff : unpinned) {
+         if (result.size() == max)
+            break;
+         result.add(buff);
+      }
+      return result;
+   }
+
+   public void removed(Buffer buff) {
+      unpinned.remove(buff);
+   }
+}
@@ -0,0 +1,100 @@
+package simpledb.buffer;
+
+import simpledb.file.IOScheduler;
+
+/**
+ * A background thread that writes dirty pages to disk
+ * before the replacement policy chooses their buffers,
+ * so that a pin which misses rarely has to write a page
+ * before it can read its own.
+ * Each round, the cleaner examines the next victims of every partition
+ * and writes those that are dirty; it then sleeps for a fixed interval.
+ * Pages are written by {@link Buffer#flushAll(java.util.List)}, which forces
+ * the log up to the pages' LSNs first, and are background requests
+ * to the {@link IOScheduler}, so that reads by transactions go first.
+ */
+class PageCleaner extends Thread {
+   private static final int BATCH = 4;
+   private AdvancedBufferMgr[] partitions;
+   private long interval;
+   private BufferStats stats;
+   private long rateStart = System.currentTimeMillis();
+   private long rateCount = 0;
+
+   /**
+    * Creates a cleaner for the specified partitions.
+    * @param partitions the partitions of a buffer pool
+    * @param stats the statistics of the buffer pool
+    * @param interval the number of milliseconds to sleep between rounds
+    */
+   PageCleaner(AdvancedBufferMgr[] partitions, BufferStats stats, long interval) {
+      super("PageCleaner");
+      this.partitions = partitions;
+      this.stats = stats;
+      this.interval = interval;
+      setDaemon(true);
+   }
+
+   /**
+    * Returns the number of milliseconds between rounds.
+    * @return the cleaning interval
+    */
+   long interval() {
+      return interval;
+   }
+
+   /**
+    * Cleans the partitions every interval.
+    * A round that fails to write a page is counted in the statistics,
+    * and the first failure of a series is reported;
+    * the page will be written when its buffer is replaced,
+    * and the cleaner still sleeps before trying again.
+    */
+   public void run() {
+      IOScheduler.setBackground(true);
+      boolean failing = false;
+      while (!isInterrupted()) {
+         try {
+            for (AdvancedBufferMgr partition : partitions)
+               clean(partition);
+            failing = false;
+         }
+         catch (RuntimeException e) {
+            stats.cleanerFailed();
+            if (!failing)
+               System.out.println("page cleaner: " + e.getMessage());
+            failing = true;
+         }
+         updateRate();
+         try {
+            Thread.sleep(interval);
+         }
+         catch (InterruptedException e) {
+            return;
+         }
+      }
+   }
+
+   /**
+    * Cleans the next victims of the partition, a batch at a time.
+    * The window covers a quarter of the partition's buffers.
+    */
+   private void clean(AdvancedBufferMgr partition) {
+      int window = Math.max(1, partition.size() / 4);
+      int cleaned;
+      do {
+         cleaned = partition.cleanAhead(window, BATCH);
+         stats.cleaned(cleaned);
+      } while (cleaned == BATCH);
+   }
+
+   private void updateRate() {
+      long now = System.currentTimeMillis();
+      if (now - rateStart >= 1000) {
+         long count = stats.pagesCleaned();
+         stats.setCleanRate((count - rateCount) * 1000.0 / (now - rateStart));
+         rateCount = count;
+         rateStart = now;
+      }
+   }
+}
@@ -0,0 +1,184 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import simpledb.file.IOScheduler;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads blocks ahead of sequential scans.
+ * The buffer manager reports each pinned block to the prefetcher.
+ * When a file's blocks are pinned in consecutive order,
+ * the prefetcher asks a background thread to read the next
+ * blocks of the file, up to a fixed window ahead of the scan,
+ * into unpinned buffers.
+ * Consecutive blocks are read with a single request,
+ * which is a background request to the {@link IOScheduler},
+ * and the buffers are left unpinned in the pool,
+ * where the scan finds them when it gets there.
+ * <p>
+ * At most {@link #MAX_STREAMS} files are followed at a time:
+ * when a new file would exceed the limit, the older half of the files,
+ * by their most recent pin, are forgotten, so that files that are
+ * no longer scanned, such as temporary tables, do not accumulate.
+ */
+class Prefetcher extends Thread {
+   private static final int MIN_RUN = 2;
+
+   /**
+    * The largest number of files whose scans are followed.
+    */
+   static final int MAX_STREAMS = 256;
+
+   private AdvBufferMgr bufferMgr;
+   private int window;
+   private ConcurrentHashMap<String,Stream> streams = new ConcurrentHashMap<String,Stream>();
+   private BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+   private BufferStats stats;
+
+   /**
+    * The recent pins of one file.
+    * <tt>last</tt> is the most recently pinned block,
+    * <tt>run</tt> the number of consecutive blocks pinned so far,
+    * and <tt>ahead</tt> the last block that has been requested.
+    * <tt>lastPinned</tt> is the time of the most recent pin.
+    */
+   private static class Stream {
+      int last = -2, run = 0, ahead = -1;
+      volatile long lastPinned = System.nanoTime();
+   }
+
+   /**
+    * A request to read blocks <tt>first</tt> through <tt>last</tt>
+    * of the stream's file.
+    */
+   private static class Request {
+      String filename;
+      Stream stream;
+      int first, last;
+
+      Request(String filename, Stream stream, int first, int last) {
+         this.filename = filename;
+         this.stream = stream;
+         this.first = first;
+         this.last = last;
+      }
+   }
+
+   /**
+    * Creates a prefetcher for the specified buffer manager.
+    * @param bufferMgr the buffer manager whose pool receives the blocks
+    * @param stats the statistics of the buffer pool
+    * @param window the number of blocks to read ahead of a scan
+    */
+   Prefetcher(AdvBufferMgr bufferMgr, BufferStats stats, int window) {
+      super("Prefetcher");
+      this.bufferMgr = bufferMgr;
+      this.stats = stats;
+      this.window = window;
+      setDaemon(true);
+   }
+
+   /**
+    * Returns the number of blocks read ahead of a scan.
+    * @return the prefetch window
+    */
+   int window() {
+      return window;
+   }
+
+   /**
+    * Notes that the specified block is being pinned.
+    * If the block continues a sequential scan of its file
+    * and the blocks already requested do not reach
+    * half a window ahead of it, the next blocks are requested.
+    * @param blk a reference to a disk block
+    */
+   void pinned(Block blk) {
+      Stream s = streams.get(blk.fileName());
+      if (s == null) {
+         s = new Stream();
+         Stream existing = streams.putIfAbsent(blk.fileName(), s);
+         if (existing != null)
+            s = existing;
+         else if (streams.size() > MAX_STREAMS)
+            sweep();
+      }
+      s.lastPinned = System.nanoTime();
+      int n = blk.number();
+      int start, end;
+      synchronized (s) {
+         if (n == s.last)
+            return;
+         if (n == s.last + 1)
+            s.run++;
+         else {
+            s.run = 1;
+            s.ahead = n;
+         }
+         s.last = n;
+         if (s.run < MIN_RUN || s.ahead - n >= window / 2)
+            return;
+         start = Math.max(s.ahead, n) + 1;
+         end = n + window;
+         s.ahead = end;
+      }
+      requests.add(new Request(blk.fileName(), s, start, end));
+   }
+
+   /**
+    * Forgets the scan of the specified file,
+    * which is being deleted.
+    * @param filename the name of the file
+    */
+   void forget(String filename) {
+      streams.remove(filename);
+   }
+
+   /**
+    * Forgets the older half of the streams, by their most recent pin.
+    */
+   private synchronized void sweep() {
+      if (streams.size() <= MAX_STREAMS)
+         return;
+      // the times are copied, since pins keep changing them
+      List<Map.Entry<String,Stream>> entries = new ArrayList<Map.Entry<String,Stream>>(streams.entrySet());
+      long[] times = new long[entries.size()];
+      for (int i=0; i<times.length; i++)
+         times[i] = entries.get(i).getValue().lastPinned;
+      long[] sorted = times.clone();
+      Arrays.sort(sorted);
+      long cutoff = sorted[sorted.length / 2];
+      for (int i=0; i<times.length; i++)
+         if (times[i] < cutoff)
+            streams.remove(entries.get(i).getKey(), entries.get(i).getValue());
+   }
+
+   public void run() {
+      IOScheduler.setBackground(true);
+      while (true) {
+         try {
+            readAhead(requests.take());
+         }
+         catch (InterruptedException e) {
+            return;
+         }
+         catch (RuntimeException e) {
+            // the scan will read the blocks itself
+         }
+      }
+   }
+
+   /**
+    * Reads the requested blocks that are not in the pool.
+    * Blocks that the scan has already reached are skipped,
+    * since the scan has read them itself.
+    */
+   private void readAhead(Request r) {
+      int first;
+      synchronized (r.stream) {
+         first = Math.max(r.first, r.stream.last + 1);
+      }
+      bufferMgr.readAhead(r.filename, first, r.last);
+   }
+}
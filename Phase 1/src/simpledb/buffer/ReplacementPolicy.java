@@ -0,0 +1,62 @@
+package simpledb.buffer;
+
+import java.util.List;
+
+/**
+ * The strategy used by a buffer manager to choose which
+ * buffer to replace when a block that is not in the pool
+ * must be read in.
+ * The buffer manager informs the policy of every pin and unpin,
+ * and of every block that is read into a buffer; the policy
+ * uses that history to rank the unpinned buffers.
+ * All methods are called while the buffer manager holds its lock,
+ * so implementations need not be thread-safe.
+ */
+public interface ReplacementPolicy {
+   /**
+    * Called after the specified buffer has been assigned
+    * to a new block.
+    * @param buff the buffer that was just loaded
+    */
+   void loaded(Buffer buff);
+
+   /**
+    * Called each time the specified buffer is pinned,
+    * whether or not its block was already in the pool.
+    * @param buff the buffer being pinned
+    */
+   void pinned(Buffer buff);
+
+   /**
+    * Called when the pin count of the specified buffer drops to zero.
+    * @param buff the buffer that is now unpinned
+    */
+   void unpinned(Buffer buff);
+
+   /**
+    * Chooses an unpinned buffer whose block will be replaced.
+    * The policy forgets the buffer's current block; the buffer will
+    * be reported again through {@link #loaded(Buffer)} once it
+    * holds its new block.
+    * @return the buffer to replace, or null if every buffer is pinned
+    */
+   Buffer chooseVictim();
+
+   /**
+    * Returns the unpinned buffers that the policy would choose next,
+    * in the order it would choose them, without changing its state.
+    * The page cleaner uses this list to write dirty pages
+    * before they are replaced.
+    * @param max the maximum number of buffers to return
+    * @return the likely next victims, first victim first
+    */
+   List<Buffer> upcomingVictims(int max);
+
+   /**
+    * Called when the specified unpinned buffer is taken out of the pool
+    * (for example, to be moved to another partition).
+    * The policy must forget the buffer.
+    * @param buff the buffer being removed
+    */
+   void removed(Buffer buff);
+}
@@ -0,0 +1,127 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The 2Q replacement policy.
+ * A block read into the pool for the first time goes into
+ * the FIFO queue <i>A1in</i>.
+ * When it is replaced from there, only its identity is remembered,
+ * in the ghost queue <i>A1out</i>.
+ * A block that is pinned again after the pin that read it in,
+ * or that is read in again while it is remembered in A1out,
+ * has proven that it is re-referenced, and goes into the LRU
+ * queue <i>Am</i>.
+ * Victims are taken from A1in while it holds more than
+ * a quarter of the resident buffers, and from Am otherwise,
+ * so a long sequential scan only ever cycles through A1in
+ * and cannot flush the frequently used pages in Am.
+ */
+class TwoQueuePolicy implements ReplacementPolicy {
+   private LinkedHashSet<Buffer> a1in = new LinkedHashSet<Buffer>();
+   private Set<Buffer> newlyLoaded = new HashSet<Buffer>();
+   private LinkedHashSet<Block> a1out = new LinkedHashSet<Block>();
+   private Set<Buffer> am = new HashSet<Buffer>();
+   private LinkedHashSet<Buffer> amUnpinned = new LinkedHashSet<Buffer>();
+
+   public void loaded(Buffer buff) {
+      if (a1out.remove(buff.block()))
+         am.add(buff);
+      else {
+         a1in.add(buff);
+         newlyLoaded.add(buff);
+      }
+   }
+
+   public void pinned(Buffer buff) {
+      if (newlyLoaded.remove(buff))
+         return;
+      if (a1in.remove(buff))
+         am.add(buff);
+      amUnpinned.remove(buff);
+   }
+
+   public void unpinned(Buffer buff) {
+      if (am.contains(buff))
+         amUnpinned.add(buff);
+   }
+
+   public Buffer chooseVictim() {
+      int resident = a1in.size() + am.size();
+      Buffer victim = null;
+      if (4 * a1in.size() > resident || amUnpinned.isEmpty())
+         victim = oldestUnpinnedInA1in();
+      if (victim == null)
+         victim = leastRecentlyUsedInAm();
+      return victim;
+   }
+
+   public List<Buffer> upcomingVictims(int max) {
+      List<Buffer> result = new ArrayList<Buffer>();
+      int resident = a1in.size() + am.size();
+      if (4 * a1in.size() > resident) {
+         addUnpinned(a1in, result, max);
+         addUnpinned(amUnpinned, result, max);
+      }
+      else {
+         addUnpinned(amUnpinned, result, max);
+         addUnpinned(a1in, result, max);
+      }
+      return result;
+   }
+
+   public void removed(Buffer buff) {
+      a1in.remove(buff);
+      newlyLoaded.remove(buff);
+      am.remove(buff);
+      amUnpinned.remove(buff);
+   }
+
+   private Buffer oldestUnpinnedInA1in() {
+      Iterator<Buffer> iter = a1in.iterator();
+      while (iter.hasNext()) {
+         Buffer buff = iter.next();
+         if (!buff.isPinned()) {
+            iter.remove();
+            a1out.add(buff.block());
+            trimA1out();
+            return buff;
+         }
+      }
+      return null;
+   }
+
+   private Buffer leastRecentlyUsedInAm() {
+      Iterator<Buffer> iter = amUnpinned.iterator();
+      if (!iter.hasNext())
+         return null;
+      Buffer buff = iter.next();
+      iter.remove();
+      am.remove(buff);
+      return buff;
+   }
+
+   private void addUnpinned(Collection<Buffer> queue, List<Buffer> result, int max) {
+      for (Buffer buff : queue) {
+         if (result.size() == max)
+            return;
+         if (!buff.isPinned())
+            result.add(buff);
+      }
+   }
+
+   /**
+    * Bounds the ghost queue to half the number of resident buffers
+    * (but never fewer than one entry),
+    * forgetting the oldest replaced blocks first.
+    */
+   private void trimA1out() {
+      int max = Math.max(1, (a1in.size() + am.size()) / 2);
+      Iterator<Block> iter = a1out.iterator();
+      while (a1out.size() > max) {
+         iter.next();
+         iter.remove();
+      }
+   }
+}
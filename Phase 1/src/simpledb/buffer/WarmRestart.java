@@ -0,0 +1,162 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import simpledb.file.IOScheduler;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Saves the list of blocks in the buffer pool to a file,
+ * and reads those blocks back into the pool after a restart,
+ * so that the pool does not have to be refilled one miss at a time.
+ * <p>
+ * The file holds one line per block, giving the file name
+ * and block number separated by a tab,
+ * with the most recently used blocks first.
+ * Blocks of temporary tables are not saved, since those
+ * tables are deleted at startup.
+ * The list is only a hint: blocks that no longer exist are ignored,
+ * and a missing or damaged file just leaves the pool cold.
+ */
+public class WarmRestart {
+   private AdvBufferMgr bufferMgr;
+   private File file;
+
+   /**
+    * Creates an object that saves and restores the contents
+    * of the specified buffer pool using the specified file.
+    * @param bufferMgr the buffer manager
+    * @param file the file that holds the list of blocks
+    */
+   public WarmRestart(AdvBufferMgr bufferMgr, File file) {
+      this.bufferMgr = bufferMgr;
+      this.file = file;
+   }
+
+   /**
+    * Writes the list of resident blocks to the file.
+    * The list is written to a temporary file which then
+    * replaces the file, so that a crash cannot leave it half-written.
+    * @throws IOException if the file cannot be written
+    */
+   public void save() throws IOException {
+      File tmp = new File(file.getPath() + ".tmp");
+      try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(tmp)))) {
+         for (Block blk : bufferMgr.residentBlocks())
+            if (!blk.fileName().startsWith("temp"))
+               out.println(blk.fileName() + "\t" + blk.number());
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   /**
+    * Reads the saved blocks back into the pool.
+    * Only as many of the most recently used blocks as the pool can
+    * hold are read; they are read in order of file and block number,
+    * and consecutive blocks are read with a single request.
+    * @throws IOException if the file cannot be read
+    */
+   public void load() throws IOException {
+      if (!file.exists())
+         return;
+      Map<String,SortedSet<Integer>> blocks = new TreeMap<String,SortedSet<Integer>>();
+      int count = 0;
+      try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+         String line;
+         while (count < bufferMgr.size() && (line = in.readLine()) != null) {
+            int tab = line.lastIndexOf('\t');
+            if (tab < 0)
+               continue;
+            String filename = line.substring(0, tab);
+            int blknum;
+            try {
+               blknum = Integer.parseInt(line.substring(tab + 1));
+            }
+            catch (NumberFormatException e) {
+               continue;
+            }
+            SortedSet<Integer> set = blocks.get(filename);
+            if (set == null) {
+               set = new TreeSet<Integer>();
+               blocks.put(filename, set);
+            }
+            if (set.add(blknum))
+               count++;
+         }
+      }
+      for (Map.Entry<String,SortedSet<Integer>> e : blocks.entrySet()) {
+         String filename = e.getKey();
+         if (!new File(file.getParentFile(), filename).exists())
+            continue;
+         int first = -1, last = -1;
+         for (int blknum : e.getValue()) {
+            if (blknum != last + 1) {
+               if (first >= 0)
+                  bufferMgr.readAhead(filename, first, last);
+               first = blknum;
+            }
+            last = blknum;
+         }
+         if (first >= 0)
+            bufferMgr.readAhead(filename, first, last);
+      }
+   }
+
+   /**
+    * Starts a background thread that loads the saved blocks.
+    */
+   public void startLoader() {
+      Thread t = new Thread("WarmRestartLoader") {
+         public void run() {
+            IOScheduler.setBackground(true);
+            try {
+               load();
+            }
+            catch (IOException | RuntimeException e) {
+               // the pool will be filled by misses instead
+            }
+         }
+      };
+      t.setDaemon(true);
+      t.start();
+   }
+
+   /**
+    * Starts a background thread that saves the list of blocks
+    * at the specified interval, and arranges for the list
+    * to be saved when the JVM shuts down.
+    * @param interval the number of milliseconds between saves
+    */
+   public void startSaver(final long interval) {
+      Thread t = new Thread("WarmRestartSaver") {
+         public void run() {
+            while (true) {
+               try {
+                  Thread.sleep(interval);
+                  save();
+               }
+               catch (InterruptedException e) {
+                  return;
+               }
+               catch (IOException | RuntimeException e) {
+                  // try again next time
+               }
+            }
+         }
+      };
+      t.setDaemon(true);
+      t.start();
+      Runtime.getRuntime().addShutdownHook(new Thread("WarmRestartShutdown") {
+         public void run() {
+            try {
+               save();
+            }
+            catch (IOException | RuntimeException e) {
+               // the last periodic save remains
+            }
+         }
+      });
+   }
+}
@@ -1,14 +1,24 @@
 package simpledb.file;
 
+import simpledb.server.SimpleDB;
+
 /**
  * A reference to a disk block.
  * A Block object consists of a filename and a block number.
  * It does not hold the contents of the block;
  * instead, that is the job of a {@link Page} object.
+ * Blocks are compared and hashed by the id that the
+ * {@link FileMgr} assigns to the file, and the block number,
+ * which is much cheaper than using the filename.
+ * The id is looked up the first time it is needed, so that
+ * creating a block does not need the file manager;
+ * two blocks whose ids have not been looked up are compared by filename.
  * @author Edward Sciore
  */
 public class Block {
+   private static final int UNRESOLVED = Integer.MIN_VALUE;
    private String filename;
+   private int fileid = UNRESOLVED;
    private int blknum;
    
    /**
@@ -30,6 +40,21 @@ public class Block {
       return filename;
    }
    
+   /**
+    * Returns the id of the file where the block lives.
+    * The id is negative for temporary files,
+    * whose ids do not survive a restart.
+    * @return the file id
+    */
+   public int fileId() {
+      int id = fileid;
+      if (id == UNRESOLVED) {
+         id = SimpleDB.fileMgr().fileId(filename);
+         fileid = id;
+      }
+      return id;
+   }
+   
    /**
     * Returns the location of the block within the file.
     * @return the block number
@@ -40,7 +65,11 @@ public class Block {
    
    public boolean equals(Object obj) {
       Block blk = (Block) obj;
-      return filename.equals(blk.filename) && blknum == blk.blknum;
+      if (blknum != blk.blknum)
+         return false;
+      if (fileid != UNRESOLVED && blk.fileid != UNRESOLVED)
+         return fileid == blk.fileid;
+      return filename.equals(blk.filename);
    }
    
    public String toString() {
@@ -48,6 +77,6 @@ public class Block {
    }
    
    public int hashCode() {
-      return toString().hashCode();
+      return fileId() * 31 + blknum;
    }
 }
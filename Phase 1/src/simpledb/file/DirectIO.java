@@ -0,0 +1,98 @@
+package simpledb.file;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Opens files for direct I/O, which bypasses the operating system's
+ * page cache, and allocates the aligned buffers that direct I/O needs.
+ * Direct I/O is available on JDK 10 and later through the
+ * non-standard option <tt>com.sun.nio.file.ExtendedOpenOption.DIRECT</tt>,
+ * which is looked up by reflection so that the class
+ * still compiles and loads on earlier releases.
+ * <p>
+ * A direct read or write must use a buffer whose address, position
+ * and length are multiples of the device's block size,
+ * at a file position that is also a multiple of it.
+ * Buffers are aligned to {@link #ALIGNMENT} bytes, which suits
+ * the devices in common use.
+ */
+class DirectIO {
+   /**
+    * The alignment of the buffers and file positions of direct I/O.
+    */
+   static final int ALIGNMENT = 4096;
+
+   private static final OpenOption DIRECT = directOption();
+   private static final Method ALIGNED_SLICE = alignedSlice();
+
+   /**
+    * Returns true if the JVM supports direct I/O.
+    * @return true if direct I/O is available
+    */
+   static boolean isAvailable() {
+      return DIRECT != null && ALIGNED_SLICE != null;
+   }
+
+   /**
+    * Opens the specified file for direct reading and writing.
+    * @param f the file
+    * @param create true if the file is created when it does not exist
+    * @return a channel of the file
+    * @throws IOException if the file cannot be opened,
+    * for example because its file system does not support direct I/O
+    */
+   static FileChannel open(File f, boolean create) throws IOException {
+      if (create)
+         return FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                                 StandardOpenOption.WRITE, StandardOpenOption.CREATE, DIRECT);
+      else
+         return FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                                 StandardOpenOption.WRITE, DIRECT);
+   }
+
+   /**
+    * Allocates an off-heap bytebuffer of the specified size
+    * whose address is a multiple of {@link #ALIGNMENT}.
+    * Direct I/O must be available.
+    * @param size the number of bytes
+    * @return the aligned bytebuffer
+    */
+   static ByteBuffer allocate(int size) {
+      ByteBuffer bb = ByteBuffer.allocateDirect(size + ALIGNMENT);
+      try {
+         ByteBuffer aligned = (ByteBuffer) ALIGNED_SLICE.invoke(bb, ALIGNMENT);
+         aligned.limit(size);
+         return aligned.slice();
+      }
+      catch (ReflectiveOperationException e) {
+         throw new UnsupportedOperationException("direct I/O is not available");
+      }
+   }
+
+   private static OpenOption directOption() {
+      try {
+         Class<?> c = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+         for (Object option : c.getEnumConstants())
+            if (((Enum<?>) option).name().equals("DIRECT"))
+               return (OpenOption) option;
+      }
+      catch (ClassNotFoundException e) {
+         // not a JDK that has extended options
+      }
+      return null;
+   }
+
+   private static Method alignedSlice() {
+      try {
+         return ByteBuffer.class.getMethod("alignedSlice", int.class);
+      }
+      catch (NoSuchMethodException e) {
+         return null;
+      }
+   }
+}
@@ -1,10 +1,16 @@
 package simpledb.file;
 
-import static simpledb.file.Page.BLOCK_SIZE;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import simpledb.file.HandleCache.Handle;
 
 /**
  * The SimpleDB file manager.
@@ -14,17 +20,138 @@ import java.util.*;
  * writing the contents of a byte buffer to a file block,
  * and appending the contents of a byte buffer to the end of a file.
  * These methods are called exclusively by the class {@link simpledb.file.Page Page},
+ * reads and writes by way of the {@link IOScheduler},
  * and are thus package-private.
  * The class also contains two public methods:
  * Method {@link #isNew() isNew} is called during system initialization by {@link simpledb.server.SimpleDB#init}.
  * Method {@link #size(String) size} is called by the log manager and transaction manager to
  * determine the end of the file.
+ * <p>
+ * The methods are not synchronized: file channels are safe for concurrent
+ * reads and writes at explicit positions, so requests for different blocks,
+ * of the same file or of different files, can be in progress at the same time.
+ * Only appends to the same file are serialized, so that each one
+ * gets a block number of its own.
+ * <p>
+ * At most {@link #DEFAULT_MAX_OPEN_FILES} files are kept open
+ * (see {@link #setMaxOpenFiles(int) setMaxOpenFiles}); beyond that,
+ * the least recently used files that no request is using are closed,
+ * and opened again when next needed.
+ * A file that is no longer needed, such as a temporary table,
+ * is closed and removed by {@link #delete(String) delete}.
+ * <p>
+ * Files are opened without synchronous writes, so a write reaches
+ * the operating system but not necessarily the disk.
+ * The file manager remembers which files have been written since they
+ * were last forced to disk, and {@link #sync(String) sync} and
+ * {@link #syncAll() syncAll} force them at the points where
+ * durability is needed: when the log is flushed, when a transaction
+ * commits or rolls back, at a checkpoint and at shutdown.
+ * Temporary files are never forced.
+ * <p>
+ * Files grow in extents of several blocks, which are written when
+ * the first of their blocks is appended, so that a file is not extended
+ * one block at a time. The number of blocks actually appended to each file
+ * is kept in memory, making appends and {@link #size(String) size} memory
+ * operations, and is saved in the header at checkpoints and at shutdown
+ * by {@link #saveSizes() saveSizes}. The first append to a file after
+ * that removes the file from the header, which is rewritten once
+ * by the next {@link #syncAll() syncAll}, rather than on every commit.
+ * A file that is not in the header, such as one extended since the sizes
+ * were last saved, is taken to hold as many blocks as its length allows;
+ * the blocks allocated but not appended are zeros, and read as empty blocks.
+ * A file whose every block must be found after a crash,
+ * such as the log, should have an extent size of 1;
+ * its size is never saved.
+ * <p>
+ * Files can be read through a memory mapping instead of read requests,
+ * which suits read-mostly files that fit in memory.
+ * Mapping is chosen for the whole database and can be overridden per file;
+ * writes always go through the file channel.
+ * <p>
+ * Files can instead be read and written with direct I/O, which bypasses
+ * the operating system's page cache, so that a block cached in the buffer
+ * pool does not take memory a second time in the page cache.
+ * Direct I/O too is chosen for the whole database and can be overridden
+ * per file; it needs JDK 10 or later, a block size that is a multiple of
+ * 4096 bytes and a file system that supports it, and buffers that are
+ * suitably aligned, which {@link #allocateBuffer(int) allocateBuffer} provides.
+ * A file read with direct I/O is never mapped.
+ * <p>
+ * The file manager also assigns each file the id used by {@link Block}
+ * objects; the ids written to the log are kept in a registry file
+ * in the database directory.
+ * <p>
+ * The block size of a database is chosen when the database is created,
+ * and is recorded in a header file in the database directory,
+ * together with the charset in which strings are encoded.
+ * A database that has no header file was created when the block size
+ * was fixed, and so has blocks of {@link #LEGACY_BLOCK_SIZE} bytes;
+ * it, like a database whose header predates the charset, encodes strings
+ * in the platform's default charset, which is then recorded in the header.
  * @author Edward Sciore
  */
 public class FileMgr {
+   /**
+    * The name of the header file in the database directory.
+    */
+   public static final String HEADER_FILE = "simpledb.hdr";
+
+   /**
+    * The name of the file id registry in the database directory.
+    */
+   public static final String REGISTRY_FILE = "simpledb.fid";
+
+   /**
+    * The block size of databases that have no header file.
+    */
+   public static final int LEGACY_BLOCK_SIZE = 400;
+
+   /**
+    * The smallest and the largest block size that
+    * a new database can have.
+    */
+   public static final int MIN_BLOCK_SIZE = 4096, MAX_BLOCK_SIZE = 32768;
+
+   /**
+    * The number of files kept open unless
+    * {@link #setMaxOpenFiles(int) setMaxOpenFiles} says otherwise.
+    */
+   public static final int DEFAULT_MAX_OPEN_FILES = 256;
+
+   private static final int HEADER_MAGIC = 0x53444248; // "SDBH"
+   private static final int HEADER_VERSION = 3;
    private File dbDirectory;
    private boolean isNew;
-   private Map<String,FileChannel> openFiles = new HashMap<String,FileChannel>();
+   private int blocksize;
+   private Charset charset;
+   private int bytesPerChar;
+   private boolean asciiCompatible;
+   private FileRegistry registry;
+   private HandleCache handles;
+   private Map<String,Object> appendLocks = new ConcurrentHashMap<String,Object>();
+   private Map<String,Object> syncLocks = new ConcurrentHashMap<String,Object>();
+   private ThreadLocal<ByteBuffer> scatterBuffers = new ThreadLocal<ByteBuffer>();
+   private Map<String,MappedFile> mappings = new ConcurrentHashMap<String,MappedFile>();
+   private Map<String,Boolean> mapModes = new ConcurrentHashMap<String,Boolean>();
+   private volatile boolean mapByDefault = false;
+   private Map<String,Boolean> directModes = new ConcurrentHashMap<String,Boolean>();
+   private volatile boolean directByDefault = false;
+   private Map<String,Boolean> unsynced = new ConcurrentHashMap<String,Boolean>();
+   private Map<String,FileSize> sizes = new ConcurrentHashMap<String,FileSize>();
+   private Map<String,Integer> savedSizes = new ConcurrentHashMap<String,Integer>();
+   private Map<String,Integer> extentSizes = new ConcurrentHashMap<String,Integer>();
+   private volatile int defaultExtentSize = 1;
+   private volatile boolean sizesChanged = false;
+
+   /**
+    * The number of blocks appended to a file,
+    * and the number of blocks its length allows.
+    */
+   private static class FileSize {
+      volatile int logical;
+      int allocated;
+   }
 
    /**
     * Creates a file manager for the specified database.
@@ -33,17 +160,45 @@ public class FileMgr {
     * If the folder does not exist, then a folder containing
     * an empty database is created automatically.
     * Files for all temporary tables (i.e. tables beginning with "temp") are deleted.
+    * The block size is used only if the database is new;
+    * otherwise it is read from the database's header file.
+    * A new database encodes strings in UTF-8.
     * @param dbname the name of the directory that holds the database
+    * @param blocksize the block size of a new database,
+    * a power of two between {@link #MIN_BLOCK_SIZE} and {@link #MAX_BLOCK_SIZE}
     */
-   public FileMgr(String dbname) {
+   public FileMgr(String dbname, int blocksize) {
       String homedir = System.getProperty("user.home");
       dbDirectory = new File(homedir, dbname);
       isNew = !dbDirectory.exists();
 
       // create the directory if the database is new
+      if (isNew && !isValidBlockSize(blocksize))
+         throw new IllegalArgumentException("invalid block size " + blocksize);
       if (isNew && !dbDirectory.mkdir())
          throw new RuntimeException("cannot create " + dbname);
 
+      // the block size and charset of an existing database are in its header
+      File header = new File(dbDirectory, HEADER_FILE);
+      boolean current = false;
+      if (isNew) {
+         this.blocksize = blocksize;
+         charset = StandardCharsets.UTF_8;
+      }
+      else if (header.exists())
+         current = readHeader(header);
+      else {
+         this.blocksize = LEGACY_BLOCK_SIZE;
+         charset = Charset.defaultCharset();
+      }
+      if (!current)
+         writeHeader(header);
+      bytesPerChar = (int) charset.newEncoder().maxBytesPerChar();
+      byte[] ascii = "Az09".getBytes(charset);
+      asciiCompatible = ascii.length == 4 && new String(ascii, StandardCharsets.US_ASCII).equals("Az09");
+      registry = new FileRegistry(new File(dbDirectory, REGISTRY_FILE));
+      handles = new HandleCache(dbDirectory, DEFAULT_MAX_OPEN_FILES);
+
       // remove any leftover temporary tables
       for (String filename : dbDirectory.list())
          if (filename.startsWith("temp"))
@@ -52,48 +207,293 @@ public class FileMgr {
 
    /**
     * Reads the contents of a disk block into a bytebuffer.
+    * Reading does not create the file: nothing is read
+    * from a file that does not exist, such as one just deleted.
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void read(Block blk, ByteBuffer bb) {
+   void read(Block blk, ByteBuffer bb) {
       try {
          bb.clear();
-         FileChannel fc = getFile(blk.fileName());
-         fc.read(bb, blk.number() * BLOCK_SIZE);
+         long pos = (long)blk.number() * blocksize;
+         MappedFile mf = getMapping(blk.fileName());
+         if (mf != null && mf.read(pos, bb))
+            return;
+         Handle h = handles.acquire(blk.fileName(), isDirect(blk.fileName()), false);
+         if (h == null)
+            return;
+         try {
+            h.channel().read(bb, pos);
+         }
+         finally {
+            handles.release(h);
+         }
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
    }
 
+   /**
+    * Reads the contents of consecutive disk blocks into bytebuffers,
+    * using a single read request.
+    * File channels have no scattering read at an explicit position,
+    * so the blocks are read into one buffer belonging to the calling thread
+    * and then copied into the bytebuffers.
+    * If the file is mapped, each block is copied from the mapping instead.
+    * @param first a reference to the first disk block
+    * @param bbs  one bytebuffer for each block
+    */
+   void read(Block first, ByteBuffer[] bbs) {
+      if (getMapping(first.fileName()) != null) {
+         for (int i=0; i<bbs.length; i++)
+            read(new Block(first.fileName(), first.number() + i), bbs[i]);
+         return;
+      }
+      try {
+         ByteBuffer all = scatterBuffer(bbs.length);
+         long pos = (long)first.number() * blocksize;
+         Handle h = handles.acquire(first.fileName(), isDirect(first.fileName()), false);
+         if (h != null) {
+            try {
+               FileChannel fc = h.channel();
+               while (all.hasRemaining() && fc.read(all, pos + all.position()) > 0)
+                  ;
+            }
+            finally {
+               handles.release(h);
+            }
+         }
+         all.flip();
+         int end = all.limit();
+         for (ByteBuffer bb : bbs) {
+            bb.clear();
+            all.limit(Math.min(all.position() + bb.remaining(), end));
+            bb.put(all);
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read blocks from " + first);
+      }
+   }
+
    /**
     * Writes the contents of a bytebuffer into a disk block.
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void write(Block blk, ByteBuffer bb) {
+   void write(Block blk, ByteBuffer bb) {
       try {
          bb.rewind();
-         FileChannel fc = getFile(blk.fileName());
-         fc.write(bb, blk.number() * BLOCK_SIZE);
+         Handle h = handles.acquire(blk.fileName(), isDirect(blk.fileName()), true);
+         try {
+            h.channel().write(bb, (long)blk.number() * blocksize);
+         }
+         finally {
+            handles.release(h);
+         }
+         if (!FileRegistry.isTemporary(blk.fileName()))
+            unsynced.put(blk.fileName(), Boolean.TRUE);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
       }
    }
 
+   /**
+    * Writes the contents of bytebuffers into consecutive disk blocks,
+    * using a single write request.
+    * Like the scattering read, the bytebuffers are first copied
+    * into one buffer belonging to the calling thread.
+    * @param first a reference to the first disk block
+    * @param bbs  one bytebuffer for each block
+    */
+   void write(Block first, ByteBuffer[] bbs) {
+      try {
+         ByteBuffer all = scatterBuffer(bbs.length);
+         for (ByteBuffer bb : bbs) {
+            bb.rewind();
+            all.put(bb);
+         }
+         all.flip();
+         long pos = (long)first.number() * blocksize;
+         Handle h = handles.acquire(first.fileName(), isDirect(first.fileName()), true);
+         try {
+            FileChannel fc = h.channel();
+            while (all.hasRemaining())
+               fc.write(all, pos + all.position());
+         }
+         finally {
+            handles.release(h);
+         }
+         if (!FileRegistry.isTemporary(first.fileName()))
+            unsynced.put(first.fileName(), Boolean.TRUE);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write blocks to " + first);
+      }
+   }
+
    /**
     * Appends the contents of a bytebuffer to the end
     * of the specified file.
+    * Appends to the same file are serialized.
     * @param filename the name of the file
     * @param bb  the bytebuffer
     * @return a reference to the newly-created block.
     */
-   synchronized Block append(String filename, ByteBuffer bb) {
-      int newblknum = size(filename);
-      Block blk = new Block(filename, newblknum);
-      write(blk, bb);
-      return blk;
+   Block append(String filename, ByteBuffer bb) {
+      synchronized (appendLock(filename)) {
+         FileSize fs = fileSize(filename);
+         int newblknum = fs.logical;
+         if (newblknum >= fs.allocated)
+            allocate(filename, fs, newblknum);
+         Block blk = new Block(filename, newblknum);
+         write(blk, bb);
+         fs.logical = newblknum + 1;
+         if (savedSizes.remove(filename) != null)
+            sizesChanged = true;
+         return blk;
+      }
+   }
+
+   /**
+    * Extends the file by an extent starting at the specified block.
+    * The blocks after the first are written as zeros;
+    * the first is about to be written by the caller.
+    */
+   private void allocate(String filename, FileSize fs, int blknum) {
+      int extent = extentSize(filename);
+      if (extent > 1) {
+         try {
+            ByteBuffer zeros = ByteBuffer.allocate((extent - 1) * blocksize);
+            long pos = (long)(blknum + 1) * blocksize;
+            Handle h = handles.acquire(filename, isDirect(filename), true);
+            try {
+               while (zeros.hasRemaining())
+                  h.channel().write(zeros, pos + zeros.position());
+            }
+            finally {
+               handles.release(h);
+            }
+         }
+         catch (IOException e) {
+            throw new RuntimeException("cannot extend " + filename);
+         }
+      }
+      fs.allocated = blknum + extent;
+   }
+
+   /**
+    * Forces the writes to the specified file to disk.
+    * Nothing is done if the file has not been written
+    * since it was last forced.
+    * Forces of the same file are serialized, so that a caller
+    * that finds nothing left to force returns only after
+    * a force in progress has finished.
+    * A file closed since it was written is opened again, since forcing
+    * any channel of a file forces every write to the file.
+    * @param filename the name of the file
+    */
+   public void sync(String filename) {
+      synchronized (lockFor(syncLocks, filename)) {
+         if (unsynced.remove(filename) == null)
+            return;
+         try {
+            Handle h = handles.acquire(filename, isDirect(filename), false);
+            if (h == null)
+               return;
+            try {
+               h.channel().force(false);
+            }
+            finally {
+               handles.release(h);
+            }
+         }
+         catch (IOException e) {
+            unsynced.put(filename, Boolean.TRUE);
+            throw new RuntimeException("cannot sync " + filename);
+         }
+      }
+   }
+
+   /**
+    * Forces the writes to every file to disk,
+    * and then rewrites the header if a file has been removed from it
+    * since it was last written.
+    */
+   public void syncAll() {
+      for (String filename : unsynced.keySet())
+         sync(filename);
+      if (sizesChanged)
+         writeSizes();
+   }
+
+   /**
+    * Forces the writes to every file to disk,
+    * and then saves the number of blocks appended to each file
+    * in the header, so that the blocks allocated but not appended
+    * are not counted when the database restarts.
+    * The header is not rewritten if no saved size has changed,
+    * or if the database directory no longer exists.
+    * This method is called at checkpoints and at shutdown.
+    */
+   public void saveSizes() {
+      for (String filename : unsynced.keySet())
+         sync(filename);
+      boolean changed = sizesChanged;
+      for (Map.Entry<String,FileSize> e : sizes.entrySet()) {
+         String filename = e.getKey();
+         if (isSaved(filename)) {
+            synchronized (appendLock(filename)) {
+               if (sizes.get(filename) == e.getValue()) {
+                  int logical = e.getValue().logical;
+                  Integer old = savedSizes.put(filename, logical);
+                  if (old == null || old != logical)
+                     changed = true;
+               }
+            }
+         }
+      }
+      if (changed && dbDirectory.exists())
+         writeSizes();
+   }
+
+   /**
+    * Closes and removes the specified file, and forgets its size.
+    * A temporary file's id is forgotten too; a database file
+    * keeps its id, since log records may refer to it.
+    * The file must no longer be in use:
+    * its blocks must have been dropped from the buffer pool.
+    * @param filename the name of the file
+    */
+   public void delete(String filename) {
+      synchronized (appendLock(filename)) {
+         handles.close(filename);
+         mappings.remove(filename);
+         mapModes.remove(filename);
+         directModes.remove(filename);
+         unsynced.remove(filename);
+         sizes.remove(filename);
+         extentSizes.remove(filename);
+         if (savedSizes.remove(filename) != null)
+            sizesChanged = true;
+         new File(dbDirectory, filename).delete();
+      }
+      appendLocks.remove(filename);
+      syncLocks.remove(filename);
+      registry.forget(filename);
+   }
+
+   /**
+    * Sets the maximum number of files kept open.
+    * Files beyond it are closed when no request is using them.
+    * @param max the maximum number of open files, at least 1
+    */
+   public void setMaxOpenFiles(int max) {
+      if (max < 1)
+         throw new IllegalArgumentException("invalid number of open files " + max);
+      handles.setCapacity(max);
    }
 
    /**
@@ -101,16 +501,262 @@ public class FileMgr {
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
-   public synchronized int size(String filename) {
-      try {
-         FileChannel fc = getFile(filename);
-         return (int)(fc.size() / BLOCK_SIZE);
+   public int size(String filename) {
+      return fileSize(filename).logical;
+   }
+
+   /**
+    * Sets the number of blocks by which files grow,
+    * unless {@link #setExtentSize(String, int)} says otherwise
+    * for a particular file.
+    * @param blocks the number of blocks in an extent, at least 1
+    */
+   public void setExtentSize(int blocks) {
+      if (blocks < 1)
+         throw new IllegalArgumentException("invalid extent size " + blocks);
+      defaultExtentSize = blocks;
+   }
+
+   /**
+    * Sets the number of blocks by which the specified file grows.
+    * @param filename the name of the file
+    * @param blocks the number of blocks in an extent, at least 1
+    */
+   public void setExtentSize(String filename, int blocks) {
+      if (blocks < 1)
+         throw new IllegalArgumentException("invalid extent size " + blocks);
+      extentSizes.put(filename, blocks);
+   }
+
+   private int extentSize(String filename) {
+      Integer blocks = extentSizes.get(filename);
+      return blocks != null ? blocks : defaultExtentSize;
+   }
+
+   /**
+    * Returns true if the size of the file is saved in the header.
+    */
+   private boolean isSaved(String filename) {
+      return !FileRegistry.isTemporary(filename) && extentSize(filename) > 1;
+   }
+
+   /**
+    * Returns the size of the specified file, reading it the first time.
+    * The saved size is used if there is one, since the file's
+    * length also counts blocks allocated but not appended.
+    * The length is read without opening the file,
+    * so a file that does not exist is not created.
+    */
+   private FileSize fileSize(String filename) {
+      FileSize fs = sizes.get(filename);
+      if (fs != null)
+         return fs;
+      synchronized (appendLock(filename)) {
+         fs = sizes.get(filename);
+         if (fs != null)
+            return fs;
+         fs = new FileSize();
+         fs.allocated = (int)(new File(dbDirectory, filename).length() / blocksize);
+         Integer saved = savedSizes.get(filename);
+         fs.logical = (saved != null && isSaved(filename)) ? Math.min(saved, fs.allocated) : fs.allocated;
+         sizes.put(filename, fs);
+         return fs;
+      }
+   }
+
+   private synchronized void writeSizes() {
+      sizesChanged = false;
+      writeHeader(new File(dbDirectory, HEADER_FILE));
+   }
+
+   /**
+    * Returns the id of the specified file,
+    * assigning one if the file does not have one yet.
+    * A newly assigned id is kept in memory only,
+    * until {@link #durableFileId(String)} is called.
+    * @param filename the name of the file
+    * @return the id of the file
+    */
+   public int fileId(String filename) {
+      return registry.id(filename);
+   }
+
+   /**
+    * Returns the id of the specified file, making sure that
+    * the id is in the registry file, as an id written to the log must be.
+    * Temporary files have negative ids, which are never kept.
+    * @param filename the name of the file
+    * @return the id of the file
+    */
+   public int durableFileId(String filename) {
+      return registry.durableId(filename);
+   }
+
+   /**
+    * Returns the name of the file having the specified id.
+    * @param fileid the id of the file
+    * @return the name of the file, or null if no file has that id
+    */
+   public String fileName(int fileid) {
+      return registry.name(fileid);
+   }
+
+   /**
+    * Returns the charset in which the database's strings are encoded.
+    * @return the charset of the database
+    */
+   public Charset charset() {
+      return charset;
+   }
+
+   /**
+    * Returns the maximum number of bytes that
+    * encode a single char in the database's charset.
+    * @return the maximum number of bytes per char
+    */
+   public int bytesPerChar() {
+      return bytesPerChar;
+   }
+
+   /**
+    * Returns true if the database's charset encodes
+    * each ASCII character as the single byte of its code.
+    */
+   boolean isAsciiCompatible() {
+      return asciiCompatible;
+   }
+
+   /**
+    * Returns the size of the database's blocks.
+    * @return the number of bytes in a block
+    */
+   public int blockSize() {
+      return blocksize;
+   }
+
+   /**
+    * Specifies whether files are read through a memory mapping,
+    * unless {@link #setMapped(String, boolean) setMapped}
+    * says otherwise for a particular file.
+    * @param mapped true if files are mapped by default
+    */
+   public void setMappedByDefault(boolean mapped) {
+      mapByDefault = mapped;
+      if (!mapped)
+         mappings.keySet().retainAll(mapModes.keySet());
+   }
+
+   /**
+    * Specifies whether the specified file is read through a memory mapping.
+    * @param filename the name of the file
+    * @param mapped true if the file is mapped
+    */
+   public void setMapped(String filename, boolean mapped) {
+      mapModes.put(filename, mapped);
+      if (!mapped)
+         mappings.remove(filename);
+   }
+
+   /**
+    * Returns true if the specified file is read through a memory mapping.
+    * @param filename the name of the file
+    * @return true if the file is mapped
+    */
+   public boolean isMapped(String filename) {
+      Boolean mapped = mapModes.get(filename);
+      return mapped != null ? mapped : mapByDefault;
+   }
+
+   /**
+    * Specifies whether files are read and written with direct I/O,
+    * unless {@link #setDirect(String, boolean) setDirect}
+    * says otherwise for a particular file.
+    * Temporary files are excluded: they are written once and read back
+    * soon after, which the page cache serves well.
+    * Direct I/O should be chosen before any file is used,
+    * so that every page buffer is allocated suitably aligned.
+    * @param direct true if files use direct I/O by default
+    * @throws UnsupportedOperationException if direct I/O
+    * is not available for this database
+    */
+   public void setDirectByDefault(boolean direct) {
+      if (direct)
+         checkDirect();
+      directByDefault = direct;
+      if (direct)
+         mappings.keySet().retainAll(directModes.keySet());
+   }
+
+   /**
+    * Specifies whether the specified file is read and written with direct I/O.
+    * @param filename the name of the file
+    * @param direct true if the file uses direct I/O
+    * @throws UnsupportedOperationException if direct I/O
+    * is not available for this database
+    */
+   public void setDirect(String filename, boolean direct) {
+      if (direct)
+         checkDirect();
+      directModes.put(filename, direct);
+      if (direct)
+         mappings.remove(filename);
+   }
+
+   /**
+    * Returns true if the specified file is read and written with direct I/O.
+    * @param filename the name of the file
+    * @return true if the file uses direct I/O
+    */
+   public boolean isDirect(String filename) {
+      Boolean direct = directModes.get(filename);
+      if (direct != null)
+         return direct;
+      return directByDefault && !FileRegistry.isTemporary(filename);
+   }
+
+   /**
+    * Allocates an off-heap bytebuffer for reading and writing blocks.
+    * If any file uses direct I/O, the buffer is aligned as direct I/O needs,
+    * and so is every slice of it that starts at a multiple of the block size.
+    * @param size the number of bytes
+    * @return a new bytebuffer
+    */
+   public ByteBuffer allocateBuffer(int size) {
+      if (directByDefault || directModes.containsValue(Boolean.TRUE))
+         return DirectIO.allocate(size);
+      return ByteBuffer.allocateDirect(size);
+   }
+
+   /**
+    * Throws an exception unless the JVM, the block size and the file system
+    * allow direct I/O; the file system is tested by reading the header.
+    */
+   private void checkDirect() {
+      if (!DirectIO.isAvailable())
+         throw new UnsupportedOperationException("direct I/O is not available in this JVM");
+      if (blocksize % DirectIO.ALIGNMENT != 0)
+         throw new UnsupportedOperationException("direct I/O needs a block size that is a multiple of "
+                                                 + DirectIO.ALIGNMENT);
+      try (FileChannel fc = DirectIO.open(new File(dbDirectory, HEADER_FILE), true)) {
+         fc.read(DirectIO.allocate(DirectIO.ALIGNMENT), 0);
       }
       catch (IOException e) {
-         throw new RuntimeException("cannot access " + filename);
+         throw new UnsupportedOperationException("direct I/O is not supported in " + dbDirectory);
       }
    }
 
+   /**
+    * Returns the file having the specified name
+    * in the database directory.
+    * This method is intended for auxiliary files
+    * that are not read and written in blocks.
+    * @param filename the name of the file
+    * @return the file in the database directory
+    */
+   public File dbFile(String filename) {
+      return new File(dbDirectory, filename);
+   }
+
    /**
     * Returns a boolean indicating whether the file manager
     * had to create a new database directory.
@@ -120,23 +766,113 @@ public class FileMgr {
       return isNew;
    }
 
+   private static boolean isValidBlockSize(int blocksize) {
+      return blocksize >= MIN_BLOCK_SIZE && blocksize <= MAX_BLOCK_SIZE
+             && Integer.bitCount(blocksize) == 1;
+   }
+
+   /**
+    * Reads the block size, charset and file sizes from the header.
+    * A version 1 header has no charset; the database
+    * uses the platform's default charset.
+    * Headers before version 3 have no file sizes.
+    * @return true if the header has the current version
+    */
+   private boolean readHeader(File header) {
+      try (DataInputStream in = new DataInputStream(new FileInputStream(header))) {
+         int magic = in.readInt(), version = in.readInt(), size = in.readInt();
+         if (magic != HEADER_MAGIC || version < 1 || version > HEADER_VERSION
+               || !(size == LEGACY_BLOCK_SIZE || isValidBlockSize(size)))
+            throw new RuntimeException("invalid database header " + header);
+         blocksize = size;
+         charset = (version == 1) ? Charset.defaultCharset() : Charset.forName(in.readUTF());
+         if (version >= 3) {
+            int count = in.readInt();
+            for (int i=0; i<count; i++) {
+               String filename = in.readUTF();
+               savedSizes.put(filename, in.readInt());
+            }
+         }
+         return version == HEADER_VERSION;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read " + header);
+      }
+   }
+
+   /**
+    * Writes the header to a new file, which then replaces the header,
+    * so that a crash leaves either the old header or the new one.
+    */
+   private void writeHeader(File header) {
+      File tmp = new File(dbDirectory, HEADER_FILE + ".new");
+      try (FileOutputStream fos = new FileOutputStream(tmp)) {
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+         out.writeInt(HEADER_MAGIC);
+         out.writeInt(HEADER_VERSION);
+         out.writeInt(blocksize);
+         out.writeUTF(charset.name());
+         Map<String,Integer> saved = new HashMap<String,Integer>(savedSizes);
+         out.writeInt(saved.size());
+         for (Map.Entry<String,Integer> e : saved.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeInt(e.getValue());
+         }
+         out.flush();
+         fos.getFD().sync();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + header);
+      }
+      try {
+         Files.move(tmp.toPath(), header.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + header);
+      }
+   }
+
    /**
-    * Returns the file channel for the specified filename.
-    * The file channel is stored in a map keyed on the filename.
-    * If the file is not open, then it is opened and the file channel
-    * is added to the map.
-    * @param filename the specified filename
-    * @return the file channel associated with the open file.
-    * @throws IOException
+    * Returns the mapping of the specified file,
+    * creating it if necessary,
+    * or null if the file is not read through a mapping.
     */
-   private FileChannel getFile(String filename) throws IOException {
-      FileChannel fc = openFiles.get(filename);
-      if (fc == null) {
-         File dbTable = new File(dbDirectory, filename);
-         RandomAccessFile f = new RandomAccessFile(dbTable, "rws");
-         fc = f.getChannel();
-         openFiles.put(filename, fc);
+   private MappedFile getMapping(String filename) {
+      if (!isMapped(filename) || isDirect(filename))
+         return null;
+      MappedFile mf = mappings.get(filename);
+      if (mf == null) {
+         mf = new MappedFile(handles, filename, blocksize);
+         MappedFile existing = mappings.putIfAbsent(filename, mf);
+         if (existing != null)
+            mf = existing;
+      }
+      return mf;
+   }
+
+   private ByteBuffer scatterBuffer(int numblocks) {
+      ByteBuffer bb = scatterBuffers.get();
+      if (bb == null || bb.capacity() < numblocks * blocksize) {
+         bb = allocateBuffer(numblocks * blocksize);
+         scatterBuffers.set(bb);
+      }
+      bb.clear();
+      bb.limit(numblocks * blocksize);
+      return bb;
+   }
+
+   private Object appendLock(String filename) {
+      return lockFor(appendLocks, filename);
+   }
+
+   private static Object lockFor(Map<String,Object> locks, String filename) {
+      Object lock = locks.get(filename);
+      if (lock == null) {
+         Object existing = locks.putIfAbsent(filename, lock = new Object());
+         if (existing != null)
+            lock = existing;
       }
-      return fc;
+      return lock;
    }
 }
@@ -0,0 +1,143 @@
+package simpledb.file;
+
+import java.io.*;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns each file of the database a small integer id,
+ * so that blocks can be identified and compared cheaply.
+ * The ids of database files are kept in a registry file,
+ * so that they stay the same after a restart and
+ * can be written to the log in place of file names.
+ * A file gets its id the first time the file is used,
+ * but is added to the registry file, and the registry file
+ * forced to disk, only when its id is about to be written to the log;
+ * files that are read, or written without logging, are not added.
+ * The ids of files not in the registry file are only kept in memory,
+ * and files registered after a restart get higher ids than any saved one.
+ * Temporary files get negative ids that are not kept,
+ * since the files do not survive a restart.
+ */
+class FileRegistry {
+   private File regfile;
+   private Map<String,Integer> ids = new ConcurrentHashMap<String,Integer>();
+   private Map<Integer,String> names = new ConcurrentHashMap<Integer,String>();
+   private Set<String> saved = ConcurrentHashMap.<String>newKeySet();
+   private int nextId = 0, nextTempId = -1;
+
+   /**
+    * Reads the registry from the specified file,
+    * which is created when the first id is assigned.
+    * A record cut short by a crash is removed.
+    * @param regfile the registry file
+    */
+   FileRegistry(File regfile) {
+      this.regfile = regfile;
+      if (!regfile.exists())
+         return;
+      try (RandomAccessFile f = new RandomAccessFile(regfile, "rw")) {
+         byte[] bytes = new byte[(int)f.length()];
+         f.readFully(bytes);
+         ByteArrayInputStream bytestream = new ByteArrayInputStream(bytes);
+         DataInputStream in = new DataInputStream(bytestream);
+         int valid = 0;
+         try {
+            while (valid < bytes.length) {
+               int id = in.readInt();
+               String filename = in.readUTF();
+               ids.put(filename, id);
+               names.put(id, filename);
+               saved.add(filename);
+               nextId = Math.max(nextId, id + 1);
+               valid = bytes.length - bytestream.available();
+            }
+         }
+         catch (EOFException e) {
+            f.setLength(valid);
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read " + regfile);
+      }
+   }
+
+   /**
+    * Returns the id of the specified file,
+    * assigning one if the file does not have one yet.
+    * @param filename the name of the file
+    * @return the id of the file
+    */
+   int id(String filename) {
+      Integer id = ids.get(filename);
+      return (id != null) ? id : register(filename);
+   }
+
+   /**
+    * Returns the id of the specified file, adding the file
+    * to the registry file if it is not there yet.
+    * Temporary files are never added.
+    * @param filename the name of the file
+    * @return the id of the file
+    */
+   int durableId(String filename) {
+      int id = id(filename);
+      if (id >= 0 && !saved.contains(filename))
+         save(filename, id);
+      return id;
+   }
+
+   /**
+    * Returns the name of the file having the specified id.
+    * @param id the id of the file
+    * @return the name of the file, or null if no file has that id
+    */
+   String name(int id) {
+      return names.get(id);
+   }
+
+   /**
+    * Forgets the id of the specified temporary file,
+    * which has been deleted.
+    * The ids of database files are never forgotten.
+    * @param filename the name of the file
+    */
+   void forget(String filename) {
+      if (!isTemporary(filename))
+         return;
+      Integer id = ids.remove(filename);
+      if (id != null)
+         names.remove(id);
+   }
+
+   private synchronized int register(String filename) {
+      Integer id = ids.get(filename);
+      if (id != null)
+         return id;
+      id = isTemporary(filename) ? nextTempId-- : nextId++;
+      names.put(id, filename);
+      ids.put(filename, id);
+      return id;
+   }
+
+   private synchronized void save(String filename, int id) {
+      if (saved.contains(filename))
+         return;
+      try (FileOutputStream fos = new FileOutputStream(regfile, true)) {
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+         out.writeInt(id);
+         out.writeUTF(filename);
+         out.flush();
+         fos.getFD().sync();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + regfile);
+      }
+      saved.add(filename);
+   }
+
+   static boolean isTemporary(String filename) {
+      return filename.startsWith("temp");
+   }
+}
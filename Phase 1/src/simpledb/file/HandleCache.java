@@ -0,0 +1,237 @@
+package simpledb.file;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the open file channels of a database directory.
+ * A channel is acquired for each read or write and released afterwards;
+ * when more than the maximum number of files are open, the least recently
+ * used channels that no request is using are closed.
+ * A file whose channel was closed is simply opened again by its next request.
+ * If every channel is in use, the limit is exceeded until some are released.
+ * A file is opened either for ordinary or for direct I/O;
+ * a request for the other mode reopens the file once no request is using it.
+ * <p>
+ * Acquiring and releasing a channel that is open takes no lock:
+ * each handle counts its users atomically, and a handle is closed
+ * only by the thread that changes an idle count to closed.
+ * Files are opened outside any lock, and only writes create a file,
+ * so that a read racing the deletion of a file does not create it again.
+ */
+class HandleCache {
+   private static final int CLOSED = -1;
+
+   private File dbDirectory;
+   private volatile int capacity;
+   private ConcurrentHashMap<String,Handle> handles = new ConcurrentHashMap<String,Handle>();
+   private AtomicLong clock = new AtomicLong();
+
+   /**
+    * An open channel and the number of requests using it.
+    * A handle removed from the cache while in use
+    * is closed by its last release.
+    */
+   static class Handle {
+      private FileChannel fc;
+      private boolean direct;
+      private AtomicInteger users = new AtomicInteger(1);
+      private volatile long lastUsed;
+      private volatile boolean removed = false;
+
+      private Handle(FileChannel fc, boolean direct) {
+         this.fc = fc;
+         this.direct = direct;
+      }
+
+      /**
+       * Returns the channel of the handle.
+       * @return the file channel
+       */
+      FileChannel channel() {
+         return fc;
+      }
+
+      /**
+       * Adds a user to the handle, unless it has been closed.
+       */
+      private boolean retain() {
+         while (true) {
+            int n = users.get();
+            if (n == CLOSED)
+               return false;
+            if (users.compareAndSet(n, n + 1))
+               return true;
+         }
+      }
+
+      /**
+       * Closes the channel if no request is using it.
+       * @return true if the channel was closed by this call
+       */
+      private boolean closeIfIdle() {
+         if (!users.compareAndSet(0, CLOSED))
+            return false;
+         try {
+            fc.close();
+         }
+         catch (IOException e) {
+            // the channel is no longer used
+         }
+         return true;
+      }
+   }
+
+   /**
+    * Creates a cache for the files of the specified directory.
+    * @param dbDirectory the database directory
+    * @param capacity the maximum number of idle channels kept open
+    */
+   HandleCache(File dbDirectory, int capacity) {
+      this.dbDirectory = dbDirectory;
+      this.capacity = capacity;
+   }
+
+   /**
+    * Sets the maximum number of channels kept open,
+    * closing idle channels beyond it.
+    * @param capacity the maximum number of channels, at least 1
+    */
+   void setCapacity(int capacity) {
+      this.capacity = capacity;
+      evict();
+   }
+
+   /**
+    * Returns the handle of the specified file, opening the file
+    * if necessary.
+    * The handle must be passed to {@link #release(Handle)}
+    * when the request is done.
+    * @param filename the name of the file
+    * @param direct true if the file is read and written with direct I/O
+    * @param create true if the file is created when it does not exist
+    * @return the file's handle, or null if the file does not exist
+    * and is not to be created
+    * @throws IOException if the file cannot be opened
+    */
+   Handle acquire(String filename, boolean direct, boolean create) throws IOException {
+      while (true) {
+         Handle h = handles.get(filename);
+         if (h == null) {
+            FileChannel fc = open(new File(dbDirectory, filename), direct, create);
+            if (fc == null)
+               return null;
+            h = new Handle(fc, direct);
+            if (handles.putIfAbsent(filename, h) != null) {
+               h.users.set(0);
+               h.closeIfIdle();
+               continue;
+            }
+            h.lastUsed = clock.incrementAndGet();
+            if (handles.size() > capacity)
+               evict();
+            return h;
+         }
+         if (!h.retain()) {
+            handles.remove(filename, h);
+            continue;
+         }
+         if (h.direct != direct) {
+            // reopen in the requested mode if no one else uses the file
+            h.users.decrementAndGet();
+            if (h.closeIfIdle()) {
+               handles.remove(filename, h);
+               continue;
+            }
+            if (!h.retain())
+               continue;
+         }
+         h.lastUsed = clock.incrementAndGet();
+         return h;
+      }
+   }
+
+   /**
+    * Releases a handle returned by {@link #acquire(String, boolean, boolean)}.
+    * @param h the handle
+    */
+   void release(Handle h) {
+      if (h.users.decrementAndGet() > 0)
+         return;
+      if (h.removed)
+         h.closeIfIdle();
+      else if (handles.size() > capacity)
+         evict();
+   }
+
+   /**
+    * Closes the channel of the specified file,
+    * as soon as no request is using it.
+    * @param filename the name of the file
+    */
+   void close(String filename) {
+      Handle h = handles.remove(filename);
+      if (h == null)
+         return;
+      h.removed = true;
+      h.closeIfIdle();
+   }
+
+   /**
+    * Closes the least recently used idle channels
+    * until no more than the maximum number are open.
+    * Eviction happens only when the cache is over its limit,
+    * so evicting threads are serialized.
+    */
+   private synchronized void evict() {
+      if (handles.size() <= capacity)
+         return;
+      // sort by a copy of the times, since requests keep changing them
+      List<Map.Entry<String,Handle>> entries = new ArrayList<Map.Entry<String,Handle>>(handles.entrySet());
+      final long[] times = new long[entries.size()];
+      Integer[] order = new Integer[times.length];
+      for (int i=0; i<times.length; i++) {
+         times[i] = entries.get(i).getValue().lastUsed;
+         order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+         public int compare(Integer i1, Integer i2) {
+            return Long.compare(times[i1], times[i2]);
+         }
+      });
+      for (int i : order) {
+         if (handles.size() <= capacity)
+            return;
+         Map.Entry<String,Handle> e = entries.get(i);
+         Handle h = e.getValue();
+         if (h.closeIfIdle())
+            handles.remove(e.getKey(), h);
+      }
+   }
+
+   /**
+    * Opens a channel of the specified file.
+    * @return the channel, or null if the file does not exist
+    * and is not to be created
+    */
+   private FileChannel open(File f, boolean direct, boolean create) throws IOException {
+      try {
+         if (direct)
+            return DirectIO.open(f, create);
+         else if (create)
+            return FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+         else
+            return FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+      }
+      catch (NoSuchFileException e) {
+         return null;
+      }
+   }
+}
@@ -0,0 +1,46 @@
+package simpledb.file;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A request to read or write consecutive blocks of a file,
+ * submitted to the {@link IOScheduler}.
+ * The bytebuffers of the request must not be used
+ * until the request has completed.
+ */
+public class IORequest {
+   static final int QUEUED = 0, RUNNING = 1, DONE = 2;
+
+   final boolean write;
+   final boolean background;
+   final Block first;
+   final ByteBuffer[] bbs;
+   int state = QUEUED;
+   RuntimeException failure;
+   private IOScheduler scheduler;
+
+   IORequest(IOScheduler scheduler, boolean write, boolean background, Block first, ByteBuffer[] bbs) {
+      this.scheduler = scheduler;
+      this.write = write;
+      this.background = background;
+      this.first = first;
+      this.bbs = bbs;
+   }
+
+   /**
+    * Waits until the request has completed.
+    * The waiting thread may perform queued requests itself
+    * while the scheduler has room for them.
+    * @throws RuntimeException if the request failed
+    */
+   public void await() {
+      scheduler.await(this);
+   }
+
+   /**
+    * Returns the block just after the last block of the request.
+    */
+   Block end() {
+      return new Block(first.fileName(), first.number() + bbs.length);
+   }
+}
@@ -0,0 +1,341 @@
+package simpledb.file;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The layer between pages and the file manager that orders
+ * and combines block reads and writes.
+ * A page submits each read or write as an {@link IORequest};
+ * a synchronous read or write is a request that is waited for at once,
+ * while an asynchronous one is queued, and waited for later.
+ * <p>
+ * The database lives in a single directory, and so on a single device.
+ * At most a fixed number of requests, the queue depth, are performed
+ * at the same time; further requests wait in a queue, so that the device
+ * is not overwhelmed. When the queue is empty and the device has room,
+ * a request is performed at once by the thread that made it.
+ * <p>
+ * Queued requests are performed by the threads waiting for them,
+ * rather than by threads of the scheduler's own: a waiting thread
+ * takes the most urgent queued request whenever the device has room.
+ * Requests made by foreground threads, which have a transaction waiting
+ * for them, are taken before those of background threads,
+ * such as the page cleaner and the prefetcher
+ * (see {@link #setBackground(boolean)}); within each class,
+ * requests are taken in the order they were made.
+ * <p>
+ * A request taken from the queue is merged with the queued requests
+ * of the same kind for the adjacent blocks of the same file,
+ * up to {@link #MAX_BLOCKS} blocks, and the whole run
+ * is performed as a single read or write.
+ */
+public class IOScheduler {
+   /**
+    * The default number of requests performed at the same time.
+    */
+   public static final int DEFAULT_QUEUE_DEPTH = 32;
+
+   /**
+    * The largest number of blocks that merged requests can span.
+    */
+   public static final int MAX_BLOCKS = 32;
+
+   private static final ThreadLocal<Boolean> background = new ThreadLocal<Boolean>();
+
+   private FileMgr fm;
+   private volatile int depth;
+   private AtomicInteger inflight = new AtomicInteger();
+   private volatile int queued = 0;
+   private Deque<IORequest> foregroundQueue = new ArrayDeque<IORequest>();
+   private Deque<IORequest> backgroundQueue = new ArrayDeque<IORequest>();
+   private Map<Block,IORequest> readsByStart = new HashMap<Block,IORequest>();
+   private Map<Block,IORequest> readsByEnd = new HashMap<Block,IORequest>();
+   private Map<Block,IORequest> writesByStart = new HashMap<Block,IORequest>();
+   private Map<Block,IORequest> writesByEnd = new HashMap<Block,IORequest>();
+
+   /**
+    * Creates a scheduler for the files of the specified file manager.
+    * @param fm the file manager
+    * @param depth the number of requests performed at the same time
+    */
+   public IOScheduler(FileMgr fm, int depth) {
+      this.fm = fm;
+      setQueueDepth(depth);
+   }
+
+   /**
+    * Sets the number of requests performed at the same time.
+    * @param depth the queue depth, at least 1
+    */
+   public void setQueueDepth(int depth) {
+      if (depth < 1)
+         throw new IllegalArgumentException("invalid queue depth " + depth);
+      this.depth = depth;
+      synchronized (this) {
+         notifyAll();
+      }
+   }
+
+   /**
+    * Marks the requests of the calling thread as background requests,
+    * which wait while foreground requests are queued.
+    * Threads that work ahead of the transactions, such as
+    * the page cleaner and the prefetcher, call this method when they start.
+    * @param isBackground true if the thread's requests are background requests
+    */
+   public static void setBackground(boolean isBackground) {
+      background.set(isBackground ? Boolean.TRUE : null);
+   }
+
+   /**
+    * Reads the specified block into the bytebuffer,
+    * returning when the read is done.
+    * @param blk a reference to a disk block
+    * @param bb the bytebuffer
+    */
+   void read(Block blk, ByteBuffer bb) {
+      perform(new IORequest(this, false, isBackground(), blk, new ByteBuffer[] {bb}));
+   }
+
+   /**
+    * Reads consecutive blocks into the bytebuffers,
+    * returning when the read is done.
+    * @param first a reference to the first disk block
+    * @param bbs one bytebuffer for each block
+    */
+   void read(Block first, ByteBuffer[] bbs) {
+      perform(new IORequest(this, false, isBackground(), first, bbs));
+   }
+
+   /**
+    * Queues a read of consecutive blocks into the bytebuffers,
+    * and returns without waiting for it.
+    * Reads queued together, and then waited for,
+    * can be merged with each other.
+    * @param first a reference to the first disk block
+    * @param bbs one bytebuffer for each block
+    * @return the request, which must be waited for
+    */
+   IORequest readAsync(Block first, ByteBuffer[] bbs) {
+      IORequest r = new IORequest(this, false, isBackground(), first, bbs);
+      enqueue(r);
+      return r;
+   }
+
+   /**
+    * Writes the bytebuffer to the specified block,
+    * returning when the write is done.
+    * @param blk a reference to a disk block
+    * @param bb the bytebuffer
+    */
+   void write(Block blk, ByteBuffer bb) {
+      perform(new IORequest(this, true, isBackground(), blk, new ByteBuffer[] {bb}));
+   }
+
+   /**
+    * Queues a write of the bytebuffer to the specified block,
+    * and returns without waiting for it.
+    * Writes queued together, and then waited for,
+    * can be merged with each other.
+    * @param blk a reference to a disk block
+    * @param bb the bytebuffer
+    * @return the request, which must be waited for
+    */
+   IORequest writeAsync(Block blk, ByteBuffer bb) {
+      IORequest r = new IORequest(this, true, isBackground(), blk, new ByteBuffer[] {bb});
+      enqueue(r);
+      return r;
+   }
+
+   /**
+    * Performs the request and waits for it.
+    * If nothing is queued and the device has room,
+    * the request is performed at once by the calling thread.
+    */
+   private void perform(IORequest r) {
+      if (queued == 0 && reserve()) {
+         r.state = IORequest.RUNNING;
+         try {
+            execute(r.write, r.first, r.bbs);
+         }
+         finally {
+            inflight.decrementAndGet();
+            if (queued > 0) {
+               synchronized (this) {
+                  notifyAll();
+               }
+            }
+         }
+         return;
+      }
+      enqueue(r);
+      await(r);
+   }
+
+   /**
+    * Waits until the request has completed,
+    * performing the most urgent queued requests while
+    * the request is still queued and the device has room.
+    */
+   void await(IORequest r) {
+      boolean interrupted = false;
+      try {
+         while (true) {
+            List<IORequest> run;
+            synchronized (this) {
+               while (true) {
+                  if (r.state == IORequest.DONE) {
+                     if (r.failure != null)
+                        throw r.failure;
+                     return;
+                  }
+                  if (r.state == IORequest.QUEUED && reserve()) {
+                     run = take();
+                     break;
+                  }
+                  try {
+                     wait();
+                  }
+                  catch (InterruptedException e) {
+                     // the buffers are in use until the request completes
+                     interrupted = true;
+                  }
+               }
+            }
+            perform(run);
+         }
+      }
+      finally {
+         if (interrupted)
+            Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Performs a run of merged requests as a single read or write,
+    * and then marks them as completed.
+    */
+   private void perform(List<IORequest> run) {
+      RuntimeException failure = null;
+      try {
+         IORequest head = run.get(0);
+         ByteBuffer[] bbs = head.bbs;
+         if (run.size() > 1) {
+            List<ByteBuffer> all = new ArrayList<ByteBuffer>();
+            for (IORequest r : run)
+               all.addAll(Arrays.asList(r.bbs));
+            bbs = all.toArray(new ByteBuffer[all.size()]);
+         }
+         execute(head.write, head.first, bbs);
+      }
+      catch (RuntimeException e) {
+         failure = e;
+      }
+      finally {
+         inflight.decrementAndGet();
+         synchronized (this) {
+            for (IORequest r : run) {
+               r.failure = failure;
+               r.state = IORequest.DONE;
+            }
+            notifyAll();
+         }
+      }
+   }
+
+   private void execute(boolean write, Block first, ByteBuffer[] bbs) {
+      if (bbs.length == 1) {
+         if (write)
+            fm.write(first, bbs[0]);
+         else
+            fm.read(first, bbs[0]);
+      }
+      else if (write)
+         fm.write(first, bbs);
+      else
+         fm.read(first, bbs);
+   }
+
+   /**
+    * Reserves room on the device for one request.
+    * @return false if the device is fully occupied
+    */
+   private boolean reserve() {
+      while (true) {
+         int n = inflight.get();
+         if (n >= depth)
+            return false;
+         if (inflight.compareAndSet(n, n + 1))
+            return true;
+      }
+   }
+
+   private synchronized void enqueue(IORequest r) {
+      (r.background ? backgroundQueue : foregroundQueue).add(r);
+      Map<Block,IORequest> byStart = r.write ? writesByStart : readsByStart;
+      Map<Block,IORequest> byEnd = r.write ? writesByEnd : readsByEnd;
+      if (!byStart.containsKey(r.first) && !byEnd.containsKey(r.end())) {
+         byStart.put(r.first, r);
+         byEnd.put(r.end(), r);
+      }
+      queued++;
+   }
+
+   /**
+    * Removes the most urgent queued request from the queue,
+    * together with the queued requests that continue it
+    * in either direction, and returns them in block order.
+    * The queue must not be empty.
+    * Requests taken by merging stay in their queue
+    * and are skipped when they reach its head.
+    */
+   private List<IORequest> take() {
+      IORequest head = poll(foregroundQueue);
+      if (head == null)
+         head = poll(backgroundQueue);
+      LinkedList<IORequest> run = new LinkedList<IORequest>();
+      run.add(head);
+      claim(head);
+      Map<Block,IORequest> byStart = head.write ? writesByStart : readsByStart;
+      Map<Block,IORequest> byEnd = head.write ? writesByEnd : readsByEnd;
+      int blocks = head.bbs.length;
+      IORequest r;
+      while ((r = byStart.get(run.getLast().end())) != null && blocks + r.bbs.length <= MAX_BLOCKS) {
+         run.addLast(r);
+         claim(r);
+         blocks += r.bbs.length;
+      }
+      while ((r = byEnd.get(run.getFirst().first)) != null && blocks + r.bbs.length <= MAX_BLOCKS) {
+         run.addFirst(r);
+         claim(r);
+         blocks += r.bbs.length;
+      }
+      return run;
+   }
+
+   private IORequest poll(Deque<IORequest> queue) {
+      IORequest r;
+      while ((r = queue.poll()) != null)
+         if (r.state == IORequest.QUEUED)
+            return r;
+      return null;
+   }
+
+   /**
+    * Marks a queued request as running, and removes it from the indexes.
+    */
+   private void claim(IORequest r) {
+      r.state = IORequest.RUNNING;
+      queued--;
+      Map<Block,IORequest> byStart = r.write ? writesByStart : readsByStart;
+      Map<Block,IORequest> byEnd = r.write ? writesByEnd : readsByEnd;
+      byStart.remove(r.first, r);
+      byEnd.remove(r.end(), r);
+   }
+
+   private static boolean isBackground() {
+      return background.get() != null;
+   }
+}
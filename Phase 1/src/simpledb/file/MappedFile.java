@@ -0,0 +1,99 @@
+package simpledb.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import simpledb.file.HandleCache.Handle;
+
+/**
+ * A read-only memory mapping of a file.
+ * The file is mapped in fixed-size regions, because a single
+ * mapping cannot exceed 2GB.
+ * A region covers only the part of the file that existed when
+ * it was mapped; when a read falls beyond it, the region is
+ * mapped again to cover the file as it is now.
+ * Writes to the file go through its channel, and are
+ * visible through the mapping.
+ * A region stays valid after the channel it was mapped from is closed,
+ * so the file's channel is needed only to map a region.
+ */
+class MappedFile {
+   private static final int REGION_BLOCKS = 16384;
+   private HandleCache handles;
+   private String filename;
+   private long regionsize;
+   private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+
+   /**
+    * Creates a mapping of the specified file.
+    * No region is mapped until it is first read.
+    * @param handles the cache of open channels
+    * @param filename the name of the file
+    * @param blocksize the block size of the database
+    */
+   MappedFile(HandleCache handles, String filename, int blocksize) {
+      this.handles = handles;
+      this.filename = filename;
+      this.regionsize = (long)REGION_BLOCKS * blocksize;
+   }
+
+   /**
+    * Copies bytes of the file, starting at the specified position,
+    * into the remaining space of the bytebuffer.
+    * The bytes must lie within a single region.
+    * @param pos the position of the first byte in the file
+    * @param bb the bytebuffer
+    * @return false if the file does not hold all of the bytes,
+    * in which case nothing is copied
+    */
+   boolean read(long pos, ByteBuffer bb) throws IOException {
+      int i = (int)(pos / regionsize);
+      int offset = (int)(pos % regionsize);
+      int end = offset + bb.remaining();
+      MappedByteBuffer region = region(i, end);
+      if (region == null)
+         return false;
+      ByteBuffer src = region.duplicate();
+      src.limit(end);
+      src.position(offset);
+      bb.put(src);
+      return true;
+   }
+
+   /**
+    * Returns the specified region, mapping it again
+    * if it does not reach the specified offset.
+    * @return the region, or null if the file does not reach the offset
+    */
+   private MappedByteBuffer region(int i, int end) throws IOException {
+      MappedByteBuffer[] rs = regions;
+      if (i < rs.length && rs[i] != null && rs[i].capacity() >= end)
+         return rs[i];
+      synchronized (this) {
+         rs = regions;
+         if (i < rs.length && rs[i] != null && rs[i].capacity() >= end)
+            return rs[i];
+         long start = i * regionsize;
+         MappedByteBuffer region;
+         Handle h = handles.acquire(filename, false, false);
+         if (h == null)
+            return null;
+         try {
+            FileChannel fc = h.channel();
+            long length = Math.min(regionsize, fc.size() - start);
+            if (length < end)
+               return null;
+            region = fc.map(FileChannel.MapMode.READ_ONLY, start, length);
+         }
+         finally {
+            handles.release(h);
+         }
+         MappedByteBuffer[] newregions = new MappedByteBuffer[Math.max(rs.length, i+1)];
+         System.arraycopy(rs, 0, newregions, 0, rs.length);
+         newregions[i] = region;
+         regions = newregions;
+         return region;
+      }
+   }
+}
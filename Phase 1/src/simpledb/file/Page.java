@@ -2,13 +2,18 @@ package simpledb.file;
 
 import simpledb.server.SimpleDB;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
 
 /**
  * The contents of a disk block in memory.
- * A page is treated as an array of BLOCK_SIZE bytes.
+ * A page is treated as an array of {@link #blockSize()} bytes.
  * There are methods to get/set values into this array,
  * and to read/write the contents of this array to a disk block.
+ * The get/set methods use absolute offsets and take no lock,
+ * so that field access does not allocate or synchronize;
+ * a page that is shared between threads must be protected
+ * by its buffer's locks, as the transaction layer does.
+ * Strings are encoded in the database's charset,
+ * which is UTF-8 unless the database predates that choice.
  * 
  * For an example of how to use Page and 
  * {@link Block} objects, 
@@ -37,12 +42,14 @@ import java.nio.charset.Charset;
  */
 public class Page {
    /**
-    * The number of bytes in a block.
-    * This value is set unreasonably low, so that it is easier
-    * to create and test databases having a lot of blocks.
-    * A more realistic value would be 4K.
+    * Returns the number of bytes in a block.
+    * The block size is chosen when the database is created,
+    * and is kept by the {@link FileMgr}.
+    * @return the block size of the database
     */
-   public static final int BLOCK_SIZE = 400;
+   public static int blockSize() {
+      return SimpleDB.fileMgr().blockSize();
+   }
    
    /**
     * The size of an integer in bytes.
@@ -55,19 +62,20 @@ public class Page {
     * The maximum size, in bytes, of a string of length n.
     * A string is represented as the encoding of its characters,
     * preceded by an integer denoting the number of bytes in this encoding.
-    * If the JVM uses the US-ASCII encoding, then each char
-    * is stored in one byte, so a string of n characters
-    * has a size of 4+n bytes.
+    * A char takes at most {@link FileMgr#bytesPerChar()} bytes,
+    * which is 3 in UTF-8, so a string of n characters
+    * has a size of at most 4+3n bytes.
     * @param n the size of the string
     * @return the maximum number of bytes required to store a string of size n
     */
    public static final int STR_SIZE(int n) {
-      float bytesPerChar = Charset.defaultCharset().newEncoder().maxBytesPerChar();
-      return INT_SIZE + (n * (int)bytesPerChar);
+      return INT_SIZE + (n * SimpleDB.fileMgr().bytesPerChar());
    }
    
-   private ByteBuffer contents = ByteBuffer.allocateDirect(BLOCK_SIZE);
+   private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>();
+   private ByteBuffer contents;
    private FileMgr filemgr = SimpleDB.fileMgr();
+   private IOScheduler scheduler = SimpleDB.ioScheduler();
    
    /**
     * Creates a new page.  Although the constructor takes no arguments,
@@ -81,14 +89,61 @@ public class Page {
     * {@link simpledb.server.SimpleDB#initFileLogAndBufferMgr(String)}
     * is called first.
     */
-   public Page() {}
+   public Page() {
+      contents = filemgr.allocateBuffer(filemgr.blockSize());
+   }
+
+   /**
+    * Creates a new page whose contents are held in the
+    * specified bytebuffer, which is typically a slice of a larger
+    * buffer holding many pages.
+    * The bytebuffer must have a capacity of exactly {@link #blockSize()} bytes.
+    * Like the no-arg constructor, this constructor
+    * depends on the {@link FileMgr} object.
+    * @param contents the bytebuffer that holds the page's contents
+    */
+   public Page(ByteBuffer contents) {
+      if (contents.capacity() != filemgr.blockSize())
+         throw new IllegalArgumentException("page buffer must hold " + filemgr.blockSize() + " bytes");
+      this.contents = contents;
+   }
    
    /**
     * Populates the page with the contents of the specified disk block. 
     * @param blk a reference to a disk block
     */
    public synchronized void read(Block blk) {
-      filemgr.read(blk, contents);
+      scheduler.read(blk, contents);
+   }
+   
+   /**
+    * Populates the pages with the contents of consecutive disk blocks,
+    * starting at the specified block, using a single read request.
+    * The pages must not be in use by any other thread.
+    * @param first a reference to the first disk block
+    * @param pages the pages to populate, in block order
+    */
+   public static void read(Block first, Page[] pages) {
+      ByteBuffer[] bbs = new ByteBuffer[pages.length];
+      for (int i=0; i<pages.length; i++)
+         bbs[i] = pages[i].contents;
+      pages[0].scheduler.read(first, bbs);
+   }
+   
+   /**
+    * Starts populating the pages with the contents of consecutive disk blocks,
+    * without waiting for the read to finish.
+    * Reads started together can be combined into one.
+    * The pages must not be used until the returned request has completed.
+    * @param first a reference to the first disk block
+    * @param pages the pages to populate, in block order
+    * @return the read request, which must be waited for
+    */
+   public static IORequest readAsync(Block first, Page[] pages) {
+      ByteBuffer[] bbs = new ByteBuffer[pages.length];
+      for (int i=0; i<pages.length; i++)
+         bbs[i] = pages[i].contents;
+      return pages[0].scheduler.readAsync(first, bbs);
    }
    
    /**
@@ -96,7 +151,19 @@ public class Page {
     * @param blk a reference to a disk block
     */
    public synchronized void write(Block blk) {
-      filemgr.write(blk, contents);
+      scheduler.write(blk, contents);
+   }
+   
+   /**
+    * Starts writing the contents of the page to the specified disk block,
+    * without waiting for the write to finish.
+    * Writes started together can be combined into one.
+    * The page must not be changed until the returned request has completed.
+    * @param blk a reference to a disk block
+    * @return the write request, which must be waited for
+    */
+   public synchronized IORequest writeAsync(Block blk) {
+      return scheduler.writeAsync(blk, contents);
    }
    
    /**
@@ -115,9 +182,8 @@ public class Page {
     * @param offset the byte offset within the page
     * @return the integer value at that offset
     */
-   public synchronized int getInt(int offset) {
-      contents.position(offset);
-      return contents.getInt();
+   public int getInt(int offset) {
+      return contents.getInt(offset);
    }
    
    /**
@@ -125,35 +191,54 @@ public class Page {
     * @param offset the byte offset within the page
     * @param val the integer to be written to the page
     */
-   public synchronized void setInt(int offset, int val) {
-      contents.position(offset);
-      contents.putInt(val);
+   public void setInt(int offset, int val) {
+      contents.putInt(offset, val);
    }
    
    /**
     * Returns the string value at the specified offset of the page.
     * If a string was not stored at that location,
     * the behavior of the method is unpredictable.
+    * The encoded bytes are copied into a buffer that belongs
+    * to the calling thread and is reused by later calls.
     * @param offset the byte offset within the page
     * @return the string value at that offset
     */
-   public synchronized String getString(int offset) {
-      contents.position(offset);
-      int len = contents.getInt();
-      byte[] byteval = new byte[len];
-      contents.get(byteval);
-      return new String(byteval);
+   public String getString(int offset) {
+      int len = contents.getInt(offset);
+      byte[] byteval = scratch.get();
+      if (byteval == null || byteval.length < len) {
+         byteval = new byte[Math.max(len, 64)];
+         scratch.set(byteval);
+      }
+      int pos = offset + INT_SIZE;
+      for (int i=0; i<len; i++)
+         byteval[i] = contents.get(pos + i);
+      return new String(byteval, 0, len, filemgr.charset());
    }
    
    /**
     * Writes a string to the specified offset on the page.
+    * If the charset encodes ASCII characters as one byte each,
+    * a string of them is written char by char without being encoded first.
     * @param offset the byte offset within the page
     * @param val the string to be written to the page
     */
-   public synchronized void setString(int offset, String val) {
-      contents.position(offset);
-      byte[] byteval = val.getBytes();
-      contents.putInt(byteval.length);
-      contents.put(byteval);
+   public void setString(int offset, String val) {
+      int len = val.length();
+      int pos = offset + INT_SIZE;
+      boolean ascii = filemgr.isAsciiCompatible();
+      for (int i=0; i<len; i++) {
+         char c = val.charAt(i);
+         if (c >= 0x80 || !ascii) {
+            byte[] byteval = val.getBytes(filemgr.charset());
+            contents.putInt(offset, byteval.length);
+            for (int j=0; j<byteval.length; j++)
+               contents.put(pos + j, byteval[j]);
+            return;
+         }
+         contents.put(pos + i, (byte) c);
+      }
+      contents.putInt(offset, len);
    }
 }
@@ -31,6 +31,10 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * Creates the manager for the specified log file.
     * If the log file does not yet exist, it is created
     * with an empty first block.
+    * The log file grows one block at a time, since recovery
+    * must find every block of it after a crash,
+    * and never uses direct I/O, since its last block is
+    * written again and again as records are added.
     * This constructor depends on a {@link FileMgr} object
     * that it gets from the method
     * {@link simpledb.server.SimpleDB#fileMgr()}.
@@ -42,6 +46,8 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     */
    public LogMgr(String logfile) {
       this.logfile = logfile;
+      SimpleDB.fileMgr().setExtentSize(logfile, 1);
+      SimpleDB.fileMgr().setDirect(logfile, false);
       int logsize = SimpleDB.fileMgr().size(logfile);
       if (logsize == 0)
          appendNewBlock();
@@ -58,9 +64,10 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * All earlier log records will also be written to disk.
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
+   public synchronized void flush(int lsn) {
       if (lsn >= currentLSN())
          flush();
+      SimpleDB.fileMgr().sync(logfile);
    }
 
    /**
@@ -86,7 +93,7 @@ public class LogMgr implements Iterable<BasicLogRecord> {
       int recsize = INT_SIZE;  // 4 bytes for the integer that points to the previous log record
       for (Object obj : rec)
          recsize += size(obj);
-      if (currentpos + recsize >= BLOCK_SIZE){ // the log record doesn't fit,
+      if (currentpos + recsize >= blockSize()){ // the log record doesn't fit,
          flush();        // so move to the next block.
          appendNewBlock();
       }
@@ -1,6 +1,7 @@
 package simpledb.materialize;
 
 import simpledb.tx.Transaction;
+import simpledb.server.SimpleDB;
 import simpledb.record.*;
 import simpledb.query.*;
 
@@ -30,9 +31,24 @@ public class TempTable {
    
    /**
     * Opens a table scan for the temporary table.
+    * Temporary tables are written and read in bulk,
+    * so each scan uses its own small ring of buffers
+    * instead of replacing buffers throughout the pool.
     */
    public UpdateScan open() {
-      return new TableScan(ti, tx);
+      return new TableScan(ti, tx, SimpleDB.bufferMgr().newRing());
+   }
+   
+   /**
+    * Deletes the table's file once the table is no longer needed,
+    * releasing its disk space and file handle.
+    * Its blocks are removed from the buffer pool without being written.
+    * Every scan of the table must have been closed.
+    */
+   public void drop() {
+      String filename = ti.fileName();
+      SimpleDB.bufferMgr().discardFile(filename);
+      SimpleDB.fileMgr().delete(filename);
    }
    
    /**
@@ -9,12 +9,14 @@ public class MetadataMgr {
    private static ViewMgr   viewmgr;
    private static StatMgr   statmgr;
    private static IndexMgr  idxmgr;
+   private static PoolMgr   poolmgr;
    
    public MetadataMgr(boolean isnew, Transaction tx) {
       tblmgr  = new TableMgr(isnew, tx);
       viewmgr = new ViewMgr(isnew, tblmgr, tx);
       statmgr = new StatMgr(tblmgr, tx);
       idxmgr  = new IndexMgr(isnew, tblmgr, tx);
+      poolmgr = new PoolMgr(isnew, tblmgr, tx);
    }
    
    public void createTable(String tblname, Schema sch, Transaction tx) {
@@ -35,6 +37,7 @@ public class MetadataMgr {
    
    public void createIndex(String idxname, String tblname, String fldname, Transaction tx) {
       idxmgr.createIndex(idxname, tblname, fldname, tx);
+      poolmgr.indexCreated(idxname, tx);
    }
    
    public Map<String,IndexInfo> getIndexInfo(String tblname, Transaction tx) {
@@ -44,4 +47,35 @@ public class MetadataMgr {
    public StatInfo getStatInfo(String tblname, TableInfo ti, Transaction tx) {
       return statmgr.getStatInfo(tblname, ti, tx);
    }
+   
+   /**
+    * Creates a named buffer pool; see {@link PoolMgr#createPool}.
+    * @param poolname the name of the new pool
+    * @param numbuffs the number of buffers in the pool
+    * @param policy the name of the pool's replacement policy
+    * @param tx the calling transaction
+    */
+   public void createBufferPool(String poolname, int numbuffs, String policy, Transaction tx) {
+      poolmgr.createPool(poolname, numbuffs, policy, tx);
+   }
+   
+   /**
+    * Assigns a table to a buffer pool; see {@link PoolMgr#setTablePool}.
+    * @param tblname the name of the table
+    * @param poolname the name of the pool, or null for the system pool
+    * @param tx the calling transaction
+    */
+   public void setTableBufferPool(String tblname, String poolname, Transaction tx) {
+      poolmgr.setTablePool(tblname, poolname, tx);
+   }
+   
+   /**
+    * Assigns an index to a buffer pool; see {@link PoolMgr#setIndexPool}.
+    * @param idxname the name of the index
+    * @param poolname the name of the pool, or null for the system pool
+    * @param tx the calling transaction
+    */
+   public void setIndexBufferPool(String idxname, String poolname, Transaction tx) {
+      poolmgr.setIndexPool(idxname, poolname, tx);
+   }
 }
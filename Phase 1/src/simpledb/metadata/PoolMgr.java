@@ -0,0 +1,244 @@
+package simpledb.metadata;
+
+import static simpledb.metadata.TableMgr.MAX_NAME;
+import simpledb.buffer.AdvBufferMgr;
+import simpledb.index.hash.HashIndex;
+import simpledb.record.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import java.io.File;
+import java.util.*;
+
+/**
+ * The pool manager keeps the named buffer pools in the catalog,
+ * together with the tables and indexes assigned to them.
+ * The pools are created, and the files of the assigned tables
+ * and indexes routed to them, when the database starts up.
+ * If there is a pool named {@link #KEEP}, the catalog tables and
+ * the directory files of B-tree indexes are routed to it
+ * unless they have been assigned elsewhere.
+ */
+class PoolMgr {
+   /**
+    * The name of the pool that holds the catalog by default.
+    */
+   public static final String KEEP = "keep";
+
+   private static final int MAX_POLICY = 10;
+   private static final int TABLE = 0, INDEX = 1;
+   private static final String[] CATALOGS =
+      { "tblcat", "fldcat", "idxcat", "viewcat", "poolcat", "poolmapcat" };
+   private TableMgr tblMgr;
+   private AdvBufferMgr bufferMgr = SimpleDB.bufferMgr();
+
+   /**
+    * Creates the pool catalogs if the database is new,
+    * or was created before named pools existed;
+    * then creates the pools and routes their files.
+    * @param isNew true if the database is new
+    * @param tblMgr the table manager
+    * @param tx the startup transaction
+    */
+   public PoolMgr(boolean isNew, TableMgr tblMgr, Transaction tx) {
+      this.tblMgr = tblMgr;
+      if (isNew || tblMgr.getTableInfo("poolcat", tx).recordLength() < 0) {
+         Schema sch = new Schema();
+         sch.addStringField("poolname", MAX_NAME);
+         sch.addIntField("numbuffs");
+         sch.addStringField("policy", MAX_POLICY);
+         tblMgr.createTable("poolcat", sch, tx);
+
+         sch = new Schema();
+         sch.addStringField("objname", MAX_NAME);
+         sch.addIntField("objtype");
+         sch.addStringField("poolname", MAX_NAME);
+         tblMgr.createTable("poolmapcat", sch, tx);
+      }
+      loadPools(tx);
+   }
+
+   /**
+    * Creates a named buffer pool and records it in the catalog.
+    * The pool itself is created when the transaction commits,
+    * so that a rolled-back transaction leaves no pool behind.
+    * @param poolname the name of the new pool
+    * @param numbuffs the number of buffers in the pool
+    * @param policy the name of the pool's replacement policy
+    * @param tx the calling transaction
+    * @throws IllegalArgumentException if the pool already exists,
+    * or the size or policy is invalid
+    */
+   public void createPool(final String poolname, final int numbuffs, final String policy, Transaction tx) {
+      if (numbuffs < 1 || !AdvBufferMgr.isPolicy(policy))
+         throw new IllegalArgumentException("invalid buffer pool " + numbuffs + " " + policy);
+      if (poolExists(poolname, tx))
+         throw new IllegalArgumentException("buffer pool " + poolname + " already exists");
+      RecordFile rf = new RecordFile(tblMgr.getTableInfo("poolcat", tx), tx);
+      rf.insert();
+      rf.setString("poolname", poolname);
+      rf.setInt("numbuffs", numbuffs);
+      rf.setString("policy", policy);
+      rf.close();
+      tx.onCommit(new Runnable() {
+         public void run() {
+            if (bufferMgr.pool(poolname) == null)
+               bufferMgr.addPool(poolname, numbuffs, policy);
+         }
+      });
+   }
+
+   /**
+    * Assigns a table to a buffer pool, or back to the
+    * system pool if the pool name is null.
+    * @param tblname the name of the table
+    * @param poolname the name of the pool, or null
+    * @param tx the calling transaction
+    * @throws IllegalArgumentException if there is no pool of that name
+    */
+   public void setTablePool(String tblname, String poolname, Transaction tx) {
+      setPool(tblname, TABLE, poolname, tx);
+   }
+
+   /**
+    * Assigns the files of an index to a buffer pool, or back to the
+    * system pool if the pool name is null.
+    * @param idxname the name of the index
+    * @param poolname the name of the pool, or null
+    * @param tx the calling transaction
+    * @throws IllegalArgumentException if there is no pool of that name
+    */
+   public void setIndexPool(String idxname, String poolname, Transaction tx) {
+      setPool(idxname, INDEX, poolname, tx);
+   }
+
+   /**
+    * Routes the directory file of a newly-created index
+    * to the keep pool, if there is one,
+    * when the transaction commits.
+    * @param idxname the name of the index
+    * @param tx the calling transaction
+    */
+   public void indexCreated(String idxname, Transaction tx) {
+      if (bufferMgr.pool(KEEP) != null)
+         routeAtCommit(Arrays.asList(idxname + "dir.tbl"), KEEP, tx);
+   }
+
+   /**
+    * Records the assignment in the catalog, and routes the files
+    * when the transaction commits.
+    */
+   private void setPool(String objname, int objtype, final String poolname, Transaction tx) {
+      if (poolname != null && !poolExists(poolname, tx))
+         throw new IllegalArgumentException("unknown buffer pool " + poolname);
+      RecordFile rf = new RecordFile(tblMgr.getTableInfo("poolmapcat", tx), tx);
+      while (rf.next())
+         if (rf.getString("objname").equals(objname) && rf.getInt("objtype") == objtype)
+            rf.delete();
+      if (poolname != null) {
+         rf.insert();
+         rf.setString("objname", objname);
+         rf.setInt("objtype", objtype);
+         rf.setString("poolname", poolname);
+      }
+      rf.close();
+      routeAtCommit(files(objname, objtype), poolname, tx);
+   }
+
+   /**
+    * Locks the end of each file, so that no other transaction
+    * can start using the file, and routes the files that are still unused
+    * when the transaction commits, while it holds the locks.
+    */
+   private void routeAtCommit(final List<String> filenames, final String poolname, Transaction tx) {
+      for (String filename : filenames)
+         tx.lockFile(filename);
+      tx.onCommit(new Runnable() {
+         public void run() {
+            for (String filename : filenames)
+               routeIfUnused(filename, poolname);
+         }
+      });
+   }
+
+   /**
+    * Returns true if the catalog has a pool of the specified name,
+    * including one created by the calling transaction.
+    */
+   private boolean poolExists(String poolname, Transaction tx) {
+      RecordFile rf = new RecordFile(tblMgr.getTableInfo("poolcat", tx), tx);
+      boolean found = false;
+      while (!found && rf.next())
+         found = rf.getString("poolname").equals(poolname);
+      rf.close();
+      return found;
+   }
+
+   /**
+    * Routes the file now if it has no blocks,
+    * since then none of its blocks can be in a pool;
+    * the caller's lock on the end of the file keeps other transactions
+    * from appending to it meanwhile.
+    * Otherwise the route takes effect when the database restarts.
+    */
+   private void routeIfUnused(String filename, String poolname) {
+      File f = SimpleDB.fileMgr().dbFile(filename);
+      if (f.exists() && SimpleDB.fileMgr().size(filename) > 0)
+         return;
+      try {
+         bufferMgr.route(filename, poolname);
+      }
+      catch (IllegalStateException e) {
+         // a block is still pinned; the route takes effect at restart
+      }
+   }
+
+   private void loadPools(Transaction tx) {
+      RecordFile rf = new RecordFile(tblMgr.getTableInfo("poolcat", tx), tx);
+      while (rf.next()) {
+         String poolname = rf.getString("poolname");
+         if (bufferMgr.pool(poolname) == null)
+            bufferMgr.addPool(poolname, rf.getInt("numbuffs"), rf.getString("policy"));
+      }
+      rf.close();
+
+      Map<String,String> routes = new HashMap<String,String>();
+      rf = new RecordFile(tblMgr.getTableInfo("poolmapcat", tx), tx);
+      while (rf.next()) {
+         String poolname = rf.getString("poolname");
+         for (String filename : files(rf.getString("objname"), rf.getInt("objtype")))
+            routes.put(filename, poolname);
+      }
+      rf.close();
+
+      if (bufferMgr.pool(KEEP) != null) {
+         for (String tblname : CATALOGS)
+            routes.putIfAbsent(tblname + ".tbl", KEEP);
+         rf = new RecordFile(tblMgr.getTableInfo("idxcat", tx), tx);
+         while (rf.next())
+            routes.putIfAbsent(rf.getString("indexname") + "dir.tbl", KEEP);
+         rf.close();
+      }
+
+      for (Map.Entry<String,String> e : routes.entrySet())
+         bufferMgr.route(e.getKey(), e.getValue());
+   }
+
+   /**
+    * Returns the names of the files that hold a table or an index.
+    * An index may be a B-tree, with a directory and a leaf file,
+    * or a hash index, with a file per bucket;
+    * bucket numbers are negative for negative hash codes.
+    */
+   private static List<String> files(String objname, int objtype) {
+      List<String> result = new ArrayList<String>();
+      if (objtype == TABLE)
+         result.add(objname + ".tbl");
+      else {
+         result.add(objname + "dir.tbl");
+         result.add(objname + "leaf.tbl");
+         for (int i=1-HashIndex.NUM_BUCKETS; i<HashIndex.NUM_BUCKETS; i++)
+            result.add(objname + i + ".tbl");
+      }
+      return result;
+   }
+}
@@ -1,6 +1,7 @@
 package simpledb.query;
 
 import simpledb.server.SimpleDB;
+import simpledb.buffer.AdvBufferMgr;
 import simpledb.tx.Transaction;
 import simpledb.metadata.*;
 import simpledb.record.*;
@@ -27,9 +28,17 @@ public class TablePlan implements Plan {
    
    /**
     * Creates a table scan for this query.
+    * A table that would fill a large part of the buffer pool
+    * is scanned through a small ring of buffers,
+    * so that the scan leaves the rest of the pool alone.
+    * The table's current size is used rather than its statistics,
+    * which may be out of date.
     * @see simpledb.query.Plan#open()
     */
    public Scan open() {
+      AdvBufferMgr bm = SimpleDB.bufferMgr();
+      if (bm.isBulk(SimpleDB.fileMgr().size(ti.fileName())))
+         return new TableScan(ti, tx, bm.newRing());
       return new TableScan(ti, tx);
    }
    
@@ -2,6 +2,7 @@ package simpledb.query;
 
 import static java.sql.Types.INTEGER;
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.record.*;
 
 /**
@@ -23,7 +24,20 @@ public class TableScan implements UpdateScan {
     * @param tx the calling transaction
     */
    public TableScan(TableInfo ti, Transaction tx) {
-      rf  = new RecordFile(ti, tx);
+      this(ti, tx, null);
+   }
+   
+   /**
+    * Creates a new table scan that reads and writes
+    * the table's blocks using the specified ring of buffers,
+    * so that scanning a large table does not
+    * replace the rest of the buffer pool.
+    * @param ti the table's metadata
+    * @param tx the calling transaction
+    * @param ring the scan's ring of buffers, or null
+    */
+   public TableScan(TableInfo ti, Transaction tx, BufferRing ring) {
+      rf  = new RecordFile(ti, tx, ring);
       sch = ti.schema();
    }
    
@@ -0,0 +1,192 @@
+package simpledb.record;
+
+import static simpledb.file.Page.*;
+import simpledb.file.Block;
+import simpledb.file.Page;
+import simpledb.buffer.*;
+import simpledb.server.SimpleDB;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The free-space map of a table, which lets an insertion
+ * go straight to a block that has room for a record.
+ * The map is a file, named after the table's file, holding one bit
+ * per block of the table; the bit is set when an insertion has found
+ * the block full, and cleared when a record of the block is deleted.
+ * Blocks beyond the end of the map have clear bits, so that
+ * new blocks, and the blocks of a table that had no map,
+ * are assumed to have room until an insertion finds otherwise.
+ * <p>
+ * The map is a hint, and is neither logged nor locked:
+ * a block whose bit is wrongly clear costs one failed insertion,
+ * and a block whose bit is wrongly set is used again after its
+ * next deletion. A transaction that rolls back clears the bits
+ * of the blocks it inserted into (see {@link RecordFile#insert()}),
+ * so a bit stays wrongly set only if the system crashed.
+ * <p>
+ * The block at which each table's search for room starts
+ * is kept in memory: it moves forward past the blocks found full,
+ * and back to any block marked as having room.
+ */
+class FreeSpaceMap {
+   private static final Object[] stripes = new Object[64];
+   static {
+      for (int i=0; i<stripes.length; i++)
+         stripes[i] = new Object();
+   }
+   private static final ConcurrentHashMap<String,Integer> firstFree = new ConcurrentHashMap<String,Integer>();
+   private static final PageFormatter ZEROS = new PageFormatter() {
+      public void format(Page p) {
+         for (int pos=0; pos+INT_SIZE<=blockSize(); pos += INT_SIZE)
+            p.setInt(pos, 0);
+      }
+   };
+
+   private String filename;
+   private int txnum;
+   private int bitsPerBlock = blockSize() * 8;
+   private AdvBufferMgr bufferMgr = SimpleDB.bufferMgr();
+
+   /**
+    * Creates the free-space map of the specified table file,
+    * on behalf of the specified transaction.
+    * The map file is not created until a block is found full.
+    * @param tblfile the name of the table's file
+    * @param txnum the id of the transaction
+    */
+   FreeSpaceMap(String tblfile, int txnum) {
+      this.filename = mapFileName(tblfile);
+      this.txnum = txnum;
+   }
+
+   /**
+    * Returns the name of the free-space map file of a table file.
+    * @param tblfile the name of the table's file
+    * @return the name of the map file
+    */
+   static String mapFileName(String tblfile) {
+      int dot = tblfile.lastIndexOf('.');
+      return (dot < 0 ? tblfile : tblfile.substring(0, dot)) + ".fsm";
+   }
+
+   /**
+    * Returns true if a table file has a free-space map.
+    * Temporary tables are only ever appended to, and have none.
+    * @param tblfile the name of the table's file
+    * @return true if the table has a free-space map
+    */
+   static boolean hasMap(String tblfile) {
+      return !tblfile.startsWith("temp");
+   }
+
+   /**
+    * Returns the first block that may have room for a record,
+    * searching from the table's remembered starting block.
+    * @param numblocks the number of blocks in the table
+    * @return the block number, or -1 if every remaining block is full
+    */
+   int nextFree(int numblocks) {
+      Integer start = firstFree.get(filename);
+      int b = nextFree(start == null ? 0 : start, numblocks);
+      if (b >= 0)
+         firstFree.put(filename, b);
+      return b;
+   }
+
+   /**
+    * Returns the first block, from the specified one on,
+    * that may have room for a record.
+    * @param start the block number to start from
+    * @param numblocks the number of blocks in the table
+    * @return the block number, or -1 if every remaining block is full
+    */
+   int nextFree(int start, int numblocks) {
+      int mapsize = SimpleDB.fileMgr().size(filename);
+      int b = start;
+      while (b < numblocks) {
+         int mapblk = b / bitsPerBlock;
+         if (mapblk >= mapsize)
+            return b;
+         Buffer buff = bufferMgr.pin(new Block(filename, mapblk));
+         try {
+            int end = Math.min(numblocks, (mapblk + 1) * bitsPerBlock);
+            while (b < end) {
+               int bit = b % bitsPerBlock;
+               int word = buff.getInt((bit / 32) * INT_SIZE);
+               if (word == -1 && bit % 32 == 0)
+                  b += 32;
+               else if ((word & (1 << (bit % 32))) == 0)
+                  return b;
+               else
+                  b++;
+            }
+         }
+         finally {
+            bufferMgr.unpin(buff);
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Records that the specified block is full.
+    * @param blknum the block number
+    */
+   void setFull(int blknum) {
+      update(blknum, true);
+      firstFree.replace(filename, blknum, blknum + 1);
+   }
+
+   /**
+    * Records that the specified block has room for a record.
+    * @param blknum the block number
+    */
+   void setFree(int blknum) {
+      update(blknum, false);
+      Integer start = firstFree.get(filename);
+      while (start != null && blknum < start && !firstFree.replace(filename, start, blknum))
+         start = firstFree.get(filename);
+   }
+
+   private void update(int blknum, boolean full) {
+      int mapblk = blknum / bitsPerBlock;
+      if (SimpleDB.fileMgr().size(filename) <= mapblk) {
+         if (!full)
+            return;
+         extend(mapblk);
+      }
+      Block blk = new Block(filename, mapblk);
+      int bit = blknum % bitsPerBlock;
+      int offset = (bit / 32) * INT_SIZE;
+      int mask = 1 << (bit % 32);
+      Buffer buff = bufferMgr.pin(blk);
+      try {
+         synchronized (stripe(blk.hashCode())) {
+            int word = buff.getInt(offset);
+            int newword = full ? (word | mask) : (word & ~mask);
+            if (newword != word)
+               buff.setInt(offset, newword, txnum, -1);
+         }
+      }
+      finally {
+         bufferMgr.unpin(buff);
+      }
+   }
+
+   /**
+    * Appends cleared blocks to the map file
+    * until it holds the specified block.
+    * Appends to the same map are serialized,
+    * so that the map does not grow past the block.
+    */
+   private void extend(int mapblk) {
+      synchronized (stripe(filename.hashCode())) {
+         while (SimpleDB.fileMgr().size(filename) <= mapblk)
+            bufferMgr.unpin(bufferMgr.pinNew(filename, ZEROS));
+      }
+   }
+
+   private static Object stripe(int hash) {
+      return stripes[(hash & 0x7fffffff) % stripes.length];
+   }
+}
@@ -1,12 +1,17 @@
 package simpledb.record;
 
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Manages a file of records.
  * There are methods for iterating through the records
  * and accessing their contents.
+ * Insertions use the table's {@link FreeSpaceMap} to find
+ * a block with room, instead of searching the file.
  * @author Edward Sciore
  */
 public class RecordFile {
@@ -15,6 +20,9 @@ public class RecordFile {
    private String filename;
    private RecordPage rp;
    private int currentblknum;
+   private BufferRing ring;
+   private FreeSpaceMap fsm;
+   private Set<Integer> insertedBlocks = new HashSet<Integer>();
    
    /**
     * Constructs an object to manage a file of records.
@@ -23,9 +31,25 @@ public class RecordFile {
     * @param tx the transaction
     */
    public RecordFile(TableInfo ti, Transaction tx) {
+      this(ti, tx, null);
+   }
+   
+   /**
+    * Constructs an object to manage a file of records
+    * on behalf of a bulk operation, such as a scan of a large table.
+    * The blocks of the file are read and appended using
+    * the specified ring of buffers.
+    * @param ti the table metadata
+    * @param tx the transaction
+    * @param ring the operation's ring of buffers, or null
+    */
+   public RecordFile(TableInfo ti, Transaction tx, BufferRing ring) {
       this.ti = ti;
       this.tx = tx;
+      this.ring = ring;
       filename = ti.fileName();
+      if (FreeSpaceMap.hasMap(filename))
+         fsm = new FreeSpaceMap(filename, tx.txNumber());
       if (tx.size(filename) == 0)
          appendBlock();
       moveTo(0);
@@ -110,20 +134,47 @@ public class RecordFile {
     */
    public void delete() {
       rp.delete();
+      if (fsm != null)
+         fsm.setFree(currentblknum);
    }
    
    /**
-    * Inserts a new, blank record somewhere in the file
-    * beginning at the current record.
+    * Inserts a new, blank record somewhere in the file.
+    * The record goes into the first block that the free-space map
+    * says may have room, searching from where the table's previous
+    * insertion succeeded; a block found to be full is marked as such.
+    * If the transaction rolls back, the blocks it inserted into
+    * are marked as having room again.
+    * A table without a map, such as a temporary table,
+    * is searched beginning at the current record.
     * If the new record does not fit into an existing block,
     * then a new block is appended to the file.
     */
    public void insert() {
-      while (!rp.insert()) {
-         if (atLastBlock())
-            appendBlock();
-         moveTo(currentblknum + 1);
+      if (fsm == null) {
+         while (!rp.insert()) {
+            if (atLastBlock())
+               appendBlock();
+            moveTo(currentblknum + 1);
+         }
+         return;
       }
+      int b = fsm.nextFree(tx.size(filename));
+      while (b >= 0) {
+         if (b != currentblknum)
+            moveTo(b);
+         if (rp.insert()) {
+            inserted(b);
+            return;
+         }
+         fsm.setFull(b);
+         b = fsm.nextFree(b + 1, tx.size(filename));
+      }
+      do {
+         appendBlock();
+         moveTo(tx.size(filename) - 1);
+      } while (!rp.insert());
+      inserted(currentblknum);
    }
    
    /**
@@ -150,7 +201,23 @@ public class RecordFile {
          rp.close();
       currentblknum = b;
       Block blk = new Block(filename, currentblknum);
-      rp = new RecordPage(blk, ti, tx);
+      rp = new RecordPage(blk, ti, tx, ring);
+   }
+   
+   /**
+    * Arranges for the block to be marked as having room
+    * if the transaction rolls back, since the records it inserted
+    * may be all that made the block full.
+    */
+   private void inserted(final int b) {
+      if (insertedBlocks.add(b)) {
+         final FreeSpaceMap map = fsm;
+         tx.onRollback(new Runnable() {
+            public void run() {
+               map.setFree(b);
+            }
+         });
+      }
    }
    
    private boolean atLastBlock() {
@@ -159,6 +226,6 @@ public class RecordFile {
    
    private void appendBlock() {
       RecordFormatter fmtr = new RecordFormatter(ti);
-      tx.append(filename, fmtr);
+      tx.append(filename, fmtr, ring);
    }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package simpledb.server;
 
 import simpledb.file.FileMgr;
+import simpledb.file.IOScheduler;
 import simpledb.buffer.*;
 import simpledb.tx.Transaction;
 import simpledb.log.LogMgr;
@@ -23,9 +24,22 @@ import simpledb.index.planner.IndexUpdatePlanner;
  * @author Edward Sciore
  */
 public class SimpleDB {
+   public static int BLOCK_SIZE = 4096; // bytes; used only when a database is created
+   public static int FILE_EXTENT = 8; // blocks by which files grow; 1 disables preallocation
+   public static boolean MMAP_READS = false; // true reads every file through a memory mapping
+   public static boolean DIRECT_IO = false; // true bypasses the OS page cache for all but the log
+   public static int MAX_OPEN_FILES = FileMgr.DEFAULT_MAX_OPEN_FILES;
+   public static int IO_QUEUE_DEPTH = IOScheduler.DEFAULT_QUEUE_DEPTH; // block requests performed at once
    public static int BUFFER_SIZE = 8;
+   public static String BUFFER_POLICY = AdvBufferMgr.LRU;
+   public static int BUFFER_PARTITIONS = Runtime.getRuntime().availableProcessors();
+   public static long PAGE_CLEANER_INTERVAL = 50; // milliseconds; 0 disables the cleaner
+   public static int PREFETCH_WINDOW = 8; // blocks; 0 disables read-ahead
    public static String LOG_FILE = "simpledb.log";
+   public static String WARM_FILE = "simpledb.warm";
+   public static long WARM_SAVE_INTERVAL = 60000; // milliseconds; 0 disables warm restart
    private static FileMgr     fm;
+   private static IOScheduler ios;
    // CS4432-Project1 changed basic buffer manager to advanced (in all relevant locations)
    private static AdvBufferMgr   bm;
    private static LogMgr      logm;
@@ -34,6 +48,12 @@ public class SimpleDB {
    /**
     * Initializes the system.
     * This method is called during system startup.
+    * Unless {@link #WARM_SAVE_INTERVAL} is 0, the blocks that were
+    * in the buffer pool when an existing database was last saved
+    * are read back in the background, and the contents of the pool
+    * are saved periodically and at shutdown.
+    * The files written since the last commit are forced
+    * to disk at shutdown.
     * @param dirname the name of the database directory
     */
    public static void init(String dirname) {
@@ -48,6 +68,22 @@ public class SimpleDB {
       }
       initMetadataMgr(isnew, tx);
       tx.commit();
+      Runtime.getRuntime().addShutdownHook(new Thread("SyncOnShutdown") {
+         public void run() {
+            try {
+               fm.saveSizes();
+            }
+            catch (RuntimeException e) {
+               System.err.println("cannot save the database at shutdown: " + e.getMessage());
+            }
+         }
+      });
+      if (WARM_SAVE_INTERVAL > 0) {
+         WarmRestart warm = new WarmRestart(bm, fm.dbFile(WARM_FILE));
+         if (!isnew)
+            warm.startLoader();
+         warm.startSaver(WARM_SAVE_INTERVAL);
+      }
    }
    
    // The following initialization methods are useful for 
@@ -55,11 +91,23 @@ public class SimpleDB {
    // without having to initialize everything.
    
    /**
-    * Initializes only the file manager.
+    * Initializes only the file manager and its I/O scheduler,
+    * which performs up to {@link #IO_QUEUE_DEPTH} requests at once.
+    * A new database gets blocks of {@link #BLOCK_SIZE} bytes.
+    * Files grow by {@link #FILE_EXTENT} blocks at a time,
+    * are read through memory mappings if {@link #MMAP_READS} is true,
+    * use direct I/O if {@link #DIRECT_IO} is true,
+    * and at most {@link #MAX_OPEN_FILES} of them are kept open.
     * @param dirname the name of the database directory
     */
    public static void initFileMgr(String dirname) {
-      fm = new FileMgr(dirname);
+      fm = new FileMgr(dirname, BLOCK_SIZE);
+      fm.setExtentSize(FILE_EXTENT);
+      fm.setMappedByDefault(MMAP_READS);
+      if (DIRECT_IO)
+         fm.setDirectByDefault(true);
+      fm.setMaxOpenFiles(MAX_OPEN_FILES);
+      ios = new IOScheduler(fm, IO_QUEUE_DEPTH);
    }
    
    /**
@@ -73,11 +121,22 @@ public class SimpleDB {
    
    /**
     * Initializes the file, log, and buffer managers.
+    * The buffer pool uses the replacement policy
+    * named by {@link #BUFFER_POLICY}, and is split into
+    * {@link #BUFFER_PARTITIONS} partitions if it is large enough.
+    * A background page cleaner is started unless
+    * {@link #PAGE_CLEANER_INTERVAL} is 0,
+    * and sequential scans are read ahead by
+    * {@link #PREFETCH_WINDOW} blocks unless it is 0.
     * @param dirname the name of the database directory
     */
    public static void initFileLogAndBufferMgr(String dirname) {
       initFileAndLogMgr(dirname);
-      bm = new AdvBufferMgr(BUFFER_SIZE);
+      bm = new AdvBufferMgr(BUFFER_SIZE, BUFFER_POLICY, BUFFER_PARTITIONS);
+      if (PAGE_CLEANER_INTERVAL > 0)
+         bm.startPageCleaner(PAGE_CLEANER_INTERVAL);
+      if (PREFETCH_WINDOW > 0)
+         bm.startPrefetcher(PREFETCH_WINDOW);
    }
    
    /**
@@ -91,7 +150,9 @@ public class SimpleDB {
    }
    
    public static FileMgr     fileMgr()   { return fm; }
+   public static IOScheduler ioScheduler() { return ios; }
    public static AdvBufferMgr   bufferMgr() { return bm; }
+   public static BufferStats bufferStats() { return bm.stats(); }
    public static LogMgr      logMgr()    { return logm; }
    public static MetadataMgr mdMgr()     { return mdm; }
    
@@ -2,11 +2,14 @@ package simpledb.server;
 import simpledb.buffer.*;
 import simpledb.file.Block;
 
+import java.util.Random;
+
 public class Test {
     public static void main(String args[]){
         for (int i = 10; i < Math.pow(2, 14); i += 5000) {
             BufferMgr manager = new BufferMgr(i);
             AdvBufferMgr advManager = new AdvBufferMgr(i);
+            AdvBufferMgr clockManager = new AdvBufferMgr(i, AdvBufferMgr.CLOCK);
 
             System.out.println("********************* " + i + " buffers *********************");
             System.out.println("------Filling buffers------\n");
@@ -30,6 +33,16 @@ public class Test {
             finish = end - start;
             System.out.println("Finished in: " + finish + " ms\n");
 
+            System.out.println("CLOCK MANAGER: ");
+            start = System.currentTimeMillis();
+            for (int j = 1; j < i-1; j++) {
+                Block blk = new Block("Fakefile.txt", j);
+                clockManager.pin(blk);
+            }
+            end = System.currentTimeMillis();
+            finish = end - start;
+            System.out.println("Finished in: " + finish + " ms\n");
+
             System.out.println("------Finding last empty buffer------\n");
             Block blk = new Block("Fakefile.txt", 99999999);
 
@@ -47,6 +60,13 @@ public class Test {
             finish = end - start;
             System.out.println("Finished in: " + finish + " ms\n");
 
+            System.out.println("CLOCK MANAGER: ");
+            start = System.currentTimeMillis();
+            clockManager.pin(blk);
+            end = System.currentTimeMillis();
+            finish = end - start;
+            System.out.println("Finished in: " + finish + " ms\n");
+
             System.out.println("------Searching for a specific block (located at the end of the bufferpool)------\n");
 
             System.out.println("ADVANCED MANAGER: ");
@@ -63,6 +83,13 @@ public class Test {
             finish = end - start;
             System.out.println("Finished in: " + finish + " ms\n");
 
+            System.out.println("CLOCK MANAGER: ");
+            start = System.currentTimeMillis();
+            clockManager.pin(blk);
+            end = System.currentTimeMillis();
+            finish = end - start;
+            System.out.println("Finished in: " + finish + " ms\n");
+
             int r = i/10;
             System.out.println("------Replacing " + r + " blocks------\n");
             System.out.println("ADVANCED MANAGER: ");
@@ -85,10 +112,76 @@ public class Test {
             finish = end - start;
             System.out.println("Finished in: " + finish + " ms\n");
 
+            System.out.println("CLOCK MANAGER: ");
+            start = System.currentTimeMillis();
+            for (int replace = 0; replace < r; replace += 1) {
+                Block blk2 = new Block("Fakefile.txt", r);
+                clockManager.pin(blk2);
+            }
+            end = System.currentTimeMillis();
+            finish = end - start;
+            System.out.println("Finished in: " + finish + " ms\n");
+
+
+            System.out.println("------Evicting " + r + " blocks from a full pool of unpinned buffers------\n");
+            String[] policies = {AdvBufferMgr.LRU, AdvBufferMgr.CLOCK, AdvBufferMgr.LRU_K, AdvBufferMgr.TWO_Q};
+            for (String policy : policies) {
+                AdvBufferMgr evictManager = new AdvBufferMgr(i, policy);
+                for (int j = 0; j < i; j++)
+                    evictManager.unpin(evictManager.pin(new Block("Fakefile.txt", j)));
+
+                System.out.println(policy.toUpperCase() + " MANAGER: ");
+                start = System.currentTimeMillis();
+                for (int evict = 0; evict < r; evict++)
+                    evictManager.unpin(evictManager.pin(new Block("Fakefile.txt", i + evict)));
+                end = System.currentTimeMillis();
+                finish = end - start;
+                System.out.println("Finished in: " + finish + " ms\n");
+            }
+
+            int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+            System.out.println("------" + threads + " clients pinning and unpinning " + (2*i) + " blocks------\n");
+            int[] partitionCounts = {1, threads};
+            for (int numpartitions : partitionCounts) {
+                AdvBufferMgr clientManager = new AdvBufferMgr(i, AdvBufferMgr.CLOCK, numpartitions);
+                System.out.println(numpartitions + " PARTITION(S): ");
+                finish = timeClients(clientManager, threads, 2*i, 20000);
+                System.out.println("Finished in: " + finish + " ms\n");
+            }
 
             System.out.println("*********************************************************");
         }
         System.out.println("Statistic Test finished.");
     }
+
+    /**
+     * Runs several threads that each pin and unpin randomly chosen
+     * blocks, and returns the elapsed time in milliseconds.
+     */
+    private static long timeClients(final AdvBufferMgr manager, int threads, final int numblocks, final int pinsPerThread) {
+        Thread[] clients = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final Random rand = new Random(t);
+            clients[t] = new Thread() {
+                public void run() {
+                    for (int k = 0; k < pinsPerThread; k++) {
+                        Block blk = new Block("Fakefile.txt", rand.nextInt(numblocks));
+                        manager.unpin(manager.pin(blk));
+                    }
+                }
+            };
+        }
+        long start = System.currentTimeMillis();
+        for (Thread client : clients)
+            client.start();
+        try {
+            for (Thread client : clients)
+                client.join();
+        }
+        catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        return System.currentTimeMillis() - start;
+    }
 }
 
@@ -5,6 +5,8 @@ import simpledb.file.Block;
 import simpledb.buffer.*;
 import simpledb.tx.recovery.RecoveryMgr;
 import simpledb.tx.concurrency.ConcurrencyMgr;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Provides transaction management for clients,
@@ -19,6 +21,8 @@ public class Transaction {
    private ConcurrencyMgr concurMgr;
    private int txnum;
    private BufferList myBuffers = new BufferList();
+   private List<Runnable> commitActions = new ArrayList<Runnable>();
+   private List<Runnable> rollbackActions = new ArrayList<Runnable>();
    
    /**
     * Creates a new transaction and its associated 
@@ -42,12 +46,20 @@ public class Transaction {
     * Commits the current transaction.
     * Flushes all modified buffers (and their log records),
     * writes and flushes a commit record to the log,
+    * performs the actions registered by {@link #onCommit(Runnable)},
     * releases all locks, and unpins any pinned buffers.
+    * The locks and buffers are released even if an action fails.
     */
    public void commit() {
       recoveryMgr.commit();
-      concurMgr.release();
-      myBuffers.unpinAll();
+      try {
+         performActions(commitActions, "commit");
+      }
+      finally {
+         rollbackActions.clear();
+         concurMgr.release();
+         myBuffers.unpinAll();
+      }
       System.out.println("transaction " + txnum + " committed");
    }
    
@@ -56,12 +68,21 @@ public class Transaction {
     * Undoes any modified values,
     * flushes those buffers,
     * writes and flushes a rollback record to the log,
+    * performs the actions registered by {@link #onRollback(Runnable)},
     * releases all locks, and unpins any pinned buffers.
+    * The locks and buffers are released even if an action fails.
     */
    public void rollback() {
-      recoveryMgr.rollback();
-      concurMgr.release();
-      myBuffers.unpinAll();
+      commitActions.clear();
+      try {
+         recoveryMgr.rollback();
+         performActions(rollbackActions, "rollback");
+      }
+      finally {
+         rollbackActions.clear();
+         concurMgr.release();
+         myBuffers.unpinAll();
+      }
       System.out.println("transaction " + txnum + " rolled back");
    }
    
@@ -87,6 +108,17 @@ public class Transaction {
       myBuffers.pin(blk);
    }
    
+   /**
+    * Pins the specified block on behalf of a bulk operation,
+    * which reuses the buffers of its ring
+    * rather than replacing buffers throughout the pool.
+    * @param blk a reference to the disk block
+    * @param ring the operation's ring of buffers, or null
+    */
+   public void pin(Block blk, BufferRing ring) {
+      myBuffers.pin(blk, ring);
+   }
+   
    /**
     * Unpins the specified block.
     * The transaction looks up the buffer pinned to this block,
@@ -191,13 +223,93 @@ public class Transaction {
     * @return a reference to the newly-created disk block
     */
    public Block append(String filename, PageFormatter fmtr) {
+      return append(filename, fmtr, null);
+   }
+   
+   /**
+    * Appends a new block to the end of the specified file
+    * on behalf of a bulk operation, using the operation's ring of buffers.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the new page
+    * @param ring the operation's ring of buffers, or null
+    * @return a reference to the newly-created disk block
+    */
+   public Block append(String filename, PageFormatter fmtr, BufferRing ring) {
       Block dummyblk = new Block(filename, END_OF_FILE);
       concurMgr.xLock(dummyblk);
-      Block blk = myBuffers.pinNew(filename, fmtr);
+      Block blk = myBuffers.pinNew(filename, fmtr, ring);
       unpin(blk);
       return blk;
    }
    
+   /**
+    * Obtains an XLock on the "end of the file", which keeps
+    * other transactions from reading the size of the file or
+    * appending to it, and so from starting to use the file,
+    * until this transaction completes.
+    * @param filename the name of the file
+    */
+   public void lockFile(String filename) {
+      Block dummyblk = new Block(filename, END_OF_FILE);
+      concurMgr.xLock(dummyblk);
+   }
+   
+   /**
+    * Registers an action that makes a change outside the database,
+    * such as creating a buffer pool, once the transaction that
+    * recorded the change has committed.
+    * The actions are performed in the order they were registered,
+    * after the commit record is on disk and before the locks are released;
+    * they are discarded if the transaction rolls back.
+    * @param action the action to perform at commit
+    */
+   public void onCommit(Runnable action) {
+      commitActions.add(action);
+   }
+   
+   /**
+    * Registers an action that corrects a hint kept outside the log,
+    * such as the free-space map of a table, once the transaction's
+    * changes have been undone.
+    * The actions are performed in the order they were registered,
+    * after the rollback record is on disk and before the locks are released;
+    * they are discarded if the transaction commits.
+    * @param action the action to perform at rollback
+    */
+   public void onRollback(Runnable action) {
+      rollbackActions.add(action);
+   }
+   
+   /**
+    * Returns the id of the transaction.
+    * @return the transaction's id number
+    */
+   public int txNumber() {
+      return txnum;
+   }
+   
+   /**
+    * Performs the registered actions and forgets them.
+    * The transaction has already completed, so an action that fails
+    * is reported and the remaining actions are still performed.
+    */
+   private void performActions(List<Runnable> actions, String event) {
+      try {
+         for (Runnable action : actions) {
+            try {
+               action.run();
+            }
+            catch (RuntimeException e) {
+               System.out.println("transaction " + txnum + ": action at "
+                                  + event + " failed: " + e);
+            }
+         }
+      }
+      finally {
+         actions.clear();
+      }
+   }
+   
    private static synchronized int nextTxNumber() {
       nextTxNum++;
       System.out.println("new transaction: " + nextTxNum);
@@ -14,6 +14,13 @@ public interface LogRecord {
    static final int CHECKPOINT = 0, START = 1,
       COMMIT = 2, ROLLBACK  = 3,
       SETINT = 4, SETSTRING = 5;
+
+   /**
+    * The codes of SETINT and SETSTRING records that identify
+    * the block's file by its id rather than by its name.
+    * Records of temporary files, whose ids are not kept, use the name.
+    */
+   static final int SETINT_ID = 6, SETSTRING_ID = 7;
    
    static final LogMgr logMgr = SimpleDB.logMgr();
    
@@ -24,9 +24,11 @@ public class RecoveryMgr {
 
    /**
     * Writes a commit record to the log, and flushes it to disk.
+    * The transaction's modified pages are forced to disk first.
     */
    public void commit() {
       SimpleDB.bufferMgr().flushAll(txnum);
+      SimpleDB.fileMgr().syncAll();
       int lsn = new CommitRecord(txnum).writeToLog();
       SimpleDB.logMgr().flush(lsn);
    }
@@ -37,6 +39,7 @@ public class RecoveryMgr {
    public void rollback() {
       doRollback();
       SimpleDB.bufferMgr().flushAll(txnum);
+      SimpleDB.fileMgr().syncAll();
       int lsn = new RollbackRecord(txnum).writeToLog();
       SimpleDB.logMgr().flush(lsn);
    }
@@ -48,9 +51,9 @@ public class RecoveryMgr {
    public void recover() {
       doRecover();
       SimpleDB.bufferMgr().flushAll(txnum);
+      SimpleDB.fileMgr().saveSizes();
       int lsn = new CheckpointRecord().writeToLog();
       SimpleDB.logMgr().flush(lsn);
-
    }
 
    /**
@@ -26,10 +26,12 @@ class SetIntRecord implements LogRecord {
    /**
     * Creates a log record by reading five other values from the log.
     * @param rec the basic log record
+    * @param byId true if the record identifies the file by its id
     */
-   public SetIntRecord(BasicLogRecord rec) {
+   public SetIntRecord(BasicLogRecord rec, boolean byId) {
       txnum = rec.nextInt();
-      String filename = rec.nextString();
+      String filename = byId ? SimpleDB.fileMgr().fileName(rec.nextInt())
+                             : rec.nextString();
       int blknum = rec.nextInt();
       blk = new Block(filename, blknum);
       offset = rec.nextInt();
@@ -39,13 +41,17 @@ class SetIntRecord implements LogRecord {
    /**
     * Writes a setInt record to the log.
     * This log record contains the SETINT operator,
-    * followed by the transaction id, the filename, number,
+    * followed by the transaction id, the file id (or the filename
+    * of a temporary file), number,
     * and offset of the modified block, and the previous
     * integer value at that offset.
     * @return the LSN of the last log value
     */
    public int writeToLog() {
-      Object[] rec = new Object[] {SETINT, txnum, blk.fileName(),
+      int fileid = SimpleDB.fileMgr().durableFileId(blk.fileName());
+      boolean byId = fileid >= 0;
+      Object[] rec = new Object[] {byId ? SETINT_ID : SETINT, txnum,
+         byId ? (Object)fileid : blk.fileName(),
          blk.number(), offset, val};
       return logMgr.append(rec);
    }
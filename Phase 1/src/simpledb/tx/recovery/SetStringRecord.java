@@ -27,10 +27,12 @@ class SetStringRecord implements LogRecord {
    /**
     * Creates a log record by reading five other values from the log.
     * @param rec the basic log record
+    * @param byId true if the record identifies the file by its id
     */
-   public SetStringRecord(BasicLogRecord rec) {
+   public SetStringRecord(BasicLogRecord rec, boolean byId) {
       txnum = rec.nextInt();
-      String filename = rec.nextString();
+      String filename = byId ? SimpleDB.fileMgr().fileName(rec.nextInt())
+                             : rec.nextString();
       int blknum = rec.nextInt();
       blk = new Block(filename, blknum);
       offset = rec.nextInt();
@@ -40,13 +42,17 @@ class SetStringRecord implements LogRecord {
    /** 
     * Writes a setString record to the log.
     * This log record contains the SETSTRING operator,
-    * followed by the transaction id, the filename, number,
+    * followed by the transaction id, the file id (or the filename
+    * of a temporary file), number,
     * and offset of the modified block, and the previous
     * string value at that offset.
     * @return the LSN of the last log value
     */
    public int writeToLog() {
-      Object[] rec = new Object[] {SETSTRING, txnum, blk.fileName(),
+      int fileid = SimpleDB.fileMgr().durableFileId(blk.fileName());
+      boolean byId = fileid >= 0;
+      Object[] rec = new Object[] {byId ? SETSTRING_ID : SETSTRING, txnum,
+         byId ? (Object)fileid : blk.fileName(),
          blk.number(), offset, val};
       return logMgr.append(rec);
    }